@@ -0,0 +1,180 @@
+package edu.usfca.cs272;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the striped, reader-biased read lock of {@link MultiReaderLock}
+ * against a single reader count guarded by a monitor, as the lock used before
+ * striping, from 1 to 64 threads. Every invocation has each thread acquire and
+ * release the read lock {@link #OPERATIONS} times, so the time per invocation
+ * stays flat as threads are added only if readers do not contend. Run with the
+ * {@code benchmark} profile:
+ *
+ * <pre>
+ * mvn -P benchmark package
+ * java -jar target/benchmarks.jar ReadLockBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReadLockBenchmark {
+	/** The number of times each thread acquires the read lock per invocation. */
+	public static final int OPERATIONS = 10_000;
+
+	/** The number of threads reading at once. */
+	@Param({ "1", "2", "4", "8", "16", "32", "64" })
+	public int threads;
+
+	/** The read lock to measure, either {@code striped} or {@code monitor}. */
+	@Param({ "striped", "monitor" })
+	public String lock;
+
+	/** The read lock shared by every thread. */
+	private MultiReaderLock.SimpleLock readLock;
+
+	/** The threads reading at once. */
+	private ExecutorService pool;
+
+	/** Lines the threads up so they all start reading together. */
+	private CyclicBarrier start;
+
+	/** The value read while holding the lock. */
+	private volatile int value;
+
+	/**
+	 * Initializes the benchmark, which is set up by {@link #setup()}.
+	 */
+	public ReadLockBenchmark() {
+		this.threads = 1;
+		this.lock = "striped";
+	}
+
+	/**
+	 * Creates the lock and starts the threads.
+	 */
+	@Setup
+	public void setup() {
+		readLock = switch (lock) {
+			case "striped" -> new MultiReaderLock(MultiReaderLock.Policy.WRITER_PREFERRING).readLock();
+			case "monitor" -> new MonitorReadLock();
+			default -> throw new IllegalArgumentException("Unknown lock: " + lock);
+		};
+		pool = Executors.newFixedThreadPool(threads);
+		start = new CyclicBarrier(threads);
+		value = 1;
+	}
+
+	/**
+	 * Stops the threads.
+	 */
+	@TearDown
+	public void tearDown() {
+		pool.shutdownNow();
+	}
+
+	/**
+	 * Has every thread acquire the read lock, read a value and release the lock
+	 * {@link #OPERATIONS} times.
+	 *
+	 * @return the sum of the values read, so the reads are not optimized away
+	 * @throws InterruptedException if interrupted while waiting for the threads
+	 * @throws ExecutionException if a thread fails
+	 */
+	@Benchmark
+	public long read() throws InterruptedException, ExecutionException {
+		List<Future<Long>> futures = new ArrayList<>(threads);
+		for (int i = 0; i < threads; i++) {
+			futures.add(pool.submit(() -> {
+				start.await();
+				long sum = 0;
+				for (int j = 0; j < OPERATIONS; j++) {
+					readLock.lock();
+					try {
+						sum += value;
+					}
+					finally {
+						readLock.unlock();
+					}
+				}
+				return sum;
+			}));
+		}
+
+		long sum = 0;
+		for (Future<Long> future : futures) {
+			sum += future.get();
+		}
+		return sum;
+	}
+
+	/**
+	 * A read lock that counts its readers in a single count guarded by a monitor,
+	 * so every reader writes to the same cache line on both lock and unlock.
+	 * There are never any writers, so readers never wait.
+	 */
+	private static class MonitorReadLock implements MultiReaderLock.SimpleLock {
+		/** The number of active readers. */
+		private int readers;
+
+		/**
+		 * Initializes a lock without any readers.
+		 */
+		private MonitorReadLock() {
+			this.readers = 0;
+		}
+
+		@Override
+		public synchronized void lock() {
+			readers++;
+		}
+
+		@Override
+		public void lockInterruptibly() {
+			lock();
+		}
+
+		@Override
+		public boolean tryLock() {
+			lock();
+			return true;
+		}
+
+		@Override
+		public boolean tryLock(Duration timeout) {
+			return tryLock();
+		}
+
+		@Override
+		public synchronized void unlock() {
+			if (readers == 0) {
+				throw new IllegalStateException();
+			}
+			readers--;
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package edu.usfca.cs272;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import opennlp.tools.stemmer.Stemmer;
+import opennlp.tools.stemmer.snowball.SnowballStemmer;
+import opennlp.tools.stemmer.snowball.SnowballStemmer.ALGORITHM;
+
+/**
+ * Compares the single pass {@link TextTokenizer} and cached stems of an
+ * {@link Analyzer} against the regular expressions of
+ * {@link FileStemmer#clean(String)} and {@link FileStemmer#split(String)} with
+ * a new stem for every word. Run with the {@code benchmark} profile:
+ *
+ * <pre>
+ * mvn -P benchmark package
+ * java -jar target/benchmarks.jar TokenizerBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenizerBenchmark {
+	/** The words used to build the text, with punctuation, case and accents. */
+	private static final String[] WORDS = {
+			"the", "Quick", "brown", "fox's", "jumped", "over", "lazy", "dogs.", "Running", "runners", "ran",
+			"café", "naïve", "résumé", "Über", "12th", "(searching)", "indexes,", "indexed", "queries!",
+			"e-mail", "co-operate", "\"quoted\"", "it's", "ZÜRICH", "well-known", "élan", "déjà", "vu" };
+
+	/** The number of words in the text. */
+	@Param({ "1000", "100000" })
+	public int size;
+
+	/** The text to tokenize. */
+	private String text;
+
+	/** The stemmer used by the regular expression baseline. */
+	private Stemmer stemmer;
+
+	/**
+	 * Initializes the benchmark, which is set up by {@link #setup()}.
+	 */
+	public TokenizerBenchmark() {
+		this.size = 0;
+	}
+
+	/**
+	 * Builds the same text for every run from a fixed seed, with words separated
+	 * by a mix of whitespace.
+	 */
+	@Setup
+	public void setup() {
+		Random random = new Random(272);
+		String[] spaces = { " ", " ", " ", "  ", "\t", "\n" };
+		StringBuilder builder = new StringBuilder();
+
+		for (int i = 0; i < size; i++) {
+			builder.append(WORDS[random.nextInt(WORDS.length)]);
+			builder.append(spaces[random.nextInt(spaces.length)]);
+		}
+
+		text = builder.toString();
+		stemmer = new SnowballStemmer(ALGORITHM.ENGLISH);
+	}
+
+	/**
+	 * Cleans and splits the text with regular expressions.
+	 *
+	 * @param blackhole consumes the words
+	 */
+	@Benchmark
+	public void regexTokenize(Blackhole blackhole) {
+		for (String word : FileStemmer.split(FileStemmer.clean(text))) {
+			blackhole.consume(word);
+		}
+	}
+
+	/**
+	 * Cleans and splits the text in a single pass into a reused buffer.
+	 *
+	 * @param blackhole consumes the words
+	 */
+	@Benchmark
+	public void textTokenize(Blackhole blackhole) {
+		TextTokenizer tokenizer = new TextTokenizer(text);
+		CharSequence word;
+		while ((word = tokenizer.next()) != null) {
+			blackhole.consume(word);
+		}
+	}
+
+	/**
+	 * Cleans and splits the text with regular expressions and stems every word.
+	 *
+	 * @param blackhole consumes the stems
+	 */
+	@Benchmark
+	public void regexStem(Blackhole blackhole) {
+		for (String word : FileStemmer.split(FileStemmer.clean(text))) {
+			blackhole.consume(stemmer.stem(word).toString());
+		}
+	}
+
+	/**
+	 * Tokenizes the text in a single pass and looks up each word in the stem
+	 * cache without copying it.
+	 *
+	 * @param blackhole consumes the stems
+	 */
+	@Benchmark
+	public void analyze(Blackhole blackhole) {
+		Analyzer.ENGLISH.analyze(text, blackhole::consume);
+	}
+}
@@ -0,0 +1,210 @@
+package edu.usfca.cs272;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import opennlp.tools.stemmer.snowball.SnowballStemmer.ALGORITHM;
+
+/**
+ * Turns text into the stems stored in an index. Text is split into cleaned
+ * words by a tokenizer, words in the stop-word list are dropped, and the rest
+ * are stemmed with the Snowball algorithm for a language. Dropped words take no
+ * position, so the remaining words are numbered one after another.
+ *
+ * <p>
+ * An index must be searched with the same analyzer it was built with, or the
+ * stems of queries may not match the stems in the index. A multilingual
+ * analyzer lets each document that declares its language be stemmed in that
+ * language instead, while queries are stemmed in the default language.
+ *
+ * @see TextTokenizer
+ * @see FileTokenizer
+ * @see CachingStemmer
+ */
+public class Analyzer {
+	/** The shared stemmer of each language other than English. */
+	private static final Map<ALGORITHM, CachingStemmer> STEMMERS = new ConcurrentHashMap<>();
+
+	/** The default analyzer, which stems every word in English. */
+	public static final Analyzer ENGLISH = new Analyzer(ALGORITHM.ENGLISH);
+
+	/** The language words are stemmed in. */
+	private final ALGORITHM language;
+
+	/** The stemmer for the language. */
+	private final CachingStemmer stemmer;
+
+	/** The cleaned words to drop before stemming. */
+	private final Set<String> stopWords;
+
+	/** The cleaned words to drop before stemming, looked up by their characters. */
+	private final Set<WordKey> stopKeys;
+
+	/** Whether documents may choose the language they are stemmed in. */
+	private final boolean isMultilingual;
+
+	/**
+	 * Initializes an analyzer.
+	 *
+	 * @param language the language to stem words in
+	 * @param stopWords the cleaned words to drop before stemming
+	 * @param isMultilingual whether documents may choose the language they are
+	 *   stemmed in
+	 *
+	 * @see #forDocument(String)
+	 */
+	public Analyzer(ALGORITHM language, Set<String> stopWords, boolean isMultilingual) {
+		this.language = language;
+		this.stemmer = language == ALGORITHM.ENGLISH ? CachingStemmer.ENGLISH
+				: STEMMERS.computeIfAbsent(language, algorithm -> new CachingStemmer(algorithm, CachingStemmer.DEFAULT_CAPACITY));
+		this.stopWords = Set.copyOf(stopWords);
+		this.stopKeys = new HashSet<>();
+		for (String stopWord : this.stopWords) {
+			this.stopKeys.add(new WordKey(stopWord));
+		}
+		this.isMultilingual = isMultilingual;
+	}
+
+	/**
+	 * Initializes an analyzer that keeps every word and stems them all in one
+	 * language.
+	 *
+	 * @param language the language to stem words in
+	 */
+	public Analyzer(ALGORITHM language) {
+		this(language, Set.of(), false);
+	}
+
+	/**
+	 * Returns the stem of a cleaned word, or null if it is a stop word. The word
+	 * is not copied unless its stem is not already cached.
+	 *
+	 * @param word the cleaned word to stem, which may be a reused buffer
+	 * @return the stem of the word, or null if it is dropped
+	 */
+	public String stem(CharSequence word) {
+		if (!stopKeys.isEmpty() && stopKeys.contains(WordKey.probe(word))) {
+			return null;
+		}
+		return stemmer.stem(word);
+	}
+
+	/**
+	 * Splits text into cleaned words and passes the stem of each word that is not
+	 * a stop word to the consumer, in order.
+	 *
+	 * @param text the text to analyze
+	 * @param stems the consumer of each stem
+	 *
+	 * @see TextTokenizer
+	 */
+	public void analyze(CharSequence text, Consumer<String> stems) {
+		TextTokenizer tokenizer = new TextTokenizer(text);
+		CharSequence word;
+		while ((word = tokenizer.next()) != null) {
+			String stem = stem(word);
+			if (stem != null) {
+				stems.accept(stem);
+			}
+		}
+	}
+
+	/**
+	 * Returns the analyzer for a document that declares its language, such as
+	 * with the {@code lang} attribute of a web page. The declared language is
+	 * only used if this analyzer is multilingual and there is a Snowball
+	 * algorithm for it; otherwise this analyzer is returned.
+	 *
+	 * @param declared the declared language of the document, or null if none
+	 * @return the analyzer to use for the document
+	 *
+	 * @see #findLanguage(String)
+	 */
+	public Analyzer forDocument(String declared) {
+		if (!isMultilingual || declared == null) {
+			return this;
+		}
+
+		ALGORITHM found = findLanguage(declared);
+		return found == null || found == language ? this : new Analyzer(found, stopWords, false);
+	}
+
+	/**
+	 * Returns the language words are stemmed in.
+	 *
+	 * @return the language of this analyzer
+	 */
+	public ALGORITHM getLanguage() {
+		return language;
+	}
+
+	/**
+	 * Returns a fingerprint of everything that decides the stems a document turns
+	 * into: the language, whether documents may choose their own, and a hash of
+	 * the stop words. Analyzers with the same fingerprint turn the same text into
+	 * the same stems, so an index saved with one may be updated with the other.
+	 *
+	 * @return the fingerprint of this analyzer
+	 *
+	 * @see IndexManifest
+	 */
+	public String fingerprint() {
+		int hash = String.join("\n", new TreeSet<>(stopWords)).hashCode();
+		return language + (isMultilingual ? "+documents" : "") + ":" + stopWords.size() + ":"
+				+ Integer.toHexString(hash);
+	}
+
+	/**
+	 * Finds the Snowball algorithm for a language, given either the name of the
+	 * algorithm, such as {@code french}, or a language tag, such as {@code fr} or
+	 * {@code fr-CA}.
+	 *
+	 * @param name the name or tag of the language
+	 * @return the algorithm for the language, or null if there is none
+	 */
+	public static ALGORITHM findLanguage(String name) {
+		String trimmed = name.strip();
+		for (String candidate : new String[] { trimmed,
+				Locale.forLanguageTag(trimmed).getDisplayLanguage(Locale.ENGLISH) }) {
+			try {
+				return ALGORITHM.valueOf(candidate.toUpperCase(Locale.ROOT));
+			}
+			catch (IllegalArgumentException e) {
+				// try the next way of naming the language
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Reads a list of stop words from a text file, cleaning them the same way as
+	 * the words of a document. Words may be separated by any whitespace.
+	 *
+	 * @param input the file of stop words
+	 * @return the cleaned stop words
+	 * @throws IOException if unable to read the file
+	 */
+	public static Set<String> readStopWords(Path input) throws IOException {
+		Set<String> stopWords = new HashSet<>();
+		try (FileTokenizer tokenizer = new FileTokenizer(input)) {
+			CharSequence word;
+			while ((word = tokenizer.next()) != null) {
+				stopWords.add(word.toString());
+			}
+		}
+		return stopWords;
+	}
+
+	@Override
+	public String toString() {
+		return language + (stopWords.isEmpty() ? "" : " without " + stopWords.size() + " stop words")
+				+ (isMultilingual ? ", or the language of each document" : "");
+	}
+}
@@ -0,0 +1,124 @@
+package edu.usfca.cs272;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import opennlp.tools.stemmer.Stemmer;
+import opennlp.tools.stemmer.snowball.SnowballStemmer;
+import opennlp.tools.stemmer.snowball.SnowballStemmer.ALGORITHM;
+
+/**
+ * A stemmer that is safe to share between threads and remembers the stems of
+ * recently seen words. Each thread stems with its own {@link SnowballStemmer},
+ * created the first time it is needed, since those stemmers keep state between
+ * calls. Because a few thousand words make up most of any text, most words are
+ * found in the cache and never stemmed again. Words are looked up by their
+ * characters, so a word still in a tokenizer's buffer is only copied into a
+ * string when it is not already cached.
+ *
+ * <p>
+ * The cache is bounded by keeping two generations of words. New stems go into
+ * the young generation, and words found in the old generation are moved back
+ * into the young one. Once the young generation is full, it becomes the old
+ * generation and the previous old generation is discarded, so the words that
+ * are no longer seen are dropped first.
+ *
+ * @see FileStemmer
+ */
+public class CachingStemmer implements Stemmer {
+	/** The number of words remembered by default. */
+	public static final int DEFAULT_CAPACITY = 1 << 16;
+
+	/** The shared stemmer for English used by the builders, crawler and queries. */
+	public static final CachingStemmer ENGLISH = new CachingStemmer(ALGORITHM.ENGLISH, DEFAULT_CAPACITY);
+
+	/** The stemmer of each thread. */
+	private final ThreadLocal<Stemmer> stemmers;
+
+	/** The most words held by each generation of the cache. */
+	private final int generationSize;
+
+	/** The generation of the cache new stems are added to. */
+	private volatile ConcurrentHashMap<WordKey, String> young;
+
+	/** The generation of the cache discarded next. */
+	private volatile ConcurrentHashMap<WordKey, String> old;
+
+	/**
+	 * Initializes a stemmer for the given language.
+	 *
+	 * @param algorithm the Snowball algorithm to stem with
+	 * @param capacity the most words to remember
+	 * @throws IllegalArgumentException if the capacity is less than 2
+	 */
+	public CachingStemmer(ALGORITHM algorithm, int capacity) {
+		if (capacity < 2) {
+			throw new IllegalArgumentException("Stem cache capacity must be at least 2");
+		}
+
+		this.stemmers = ThreadLocal.withInitial(() -> new SnowballStemmer(algorithm));
+		this.generationSize = capacity / 2;
+		this.young = new ConcurrentHashMap<>();
+		this.old = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Stems a word, using the cached stem if the word was seen recently. The same
+	 * string is returned for every occurrence of a cached word, and the word is
+	 * not copied unless it is missing from the young generation.
+	 *
+	 * @param word the word to stem, which may be a reused buffer
+	 * @return the stem of the word
+	 *
+	 * @see WordKey#probe(CharSequence)
+	 */
+	@Override
+	public String stem(CharSequence word) {
+		ConcurrentHashMap<WordKey, String> current = young;
+		WordKey probe = WordKey.probe(word);
+
+		String stem = current.get(probe);
+		if (stem != null) {
+			return stem;
+		}
+
+		stem = old.get(probe);
+		String key = word.toString();
+		if (stem == null) {
+			stem = stemmers.get().stem(key).toString();
+		}
+
+		current.put(new WordKey(key), stem);
+		if (current.size() >= generationSize) {
+			rotate(current);
+		}
+		return stem;
+	}
+
+	/**
+	 * Makes a full young generation the old generation, discarding the previous
+	 * old generation. Only one thread rotates a given generation.
+	 *
+	 * @param full the young generation found to be full
+	 */
+	private synchronized void rotate(ConcurrentHashMap<WordKey, String> full) {
+		if (young == full) {
+			old = full;
+			young = new ConcurrentHashMap<>(generationSize * 4 / 3 + 1);
+		}
+	}
+
+	/**
+	 * Returns the number of words currently remembered.
+	 *
+	 * @return the number of cached words in both generations, counting a word
+	 *   moved back into the young generation twice
+	 */
+	public int size() {
+		return young.size() + old.size();
+	}
+
+	@Override
+	public String toString() {
+		return "Cached " + size() + " stems";
+	}
+}
@@ -0,0 +1,924 @@
+package edu.usfca.cs272;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Function;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * A read-only inverted index with its postings compressed into a single
+ * contiguous buffer. Created by {@link InvertedIndex#freeze()} once building is
+ * complete, or by {@link #open(Path)} from a segment written to disk. Since it
+ * is never modified, it is safe to search from multiple threads without
+ * locking.
+ *
+ * <p>
+ * Words and locations are kept in sorted arrays, and the document id of each
+ * location is its index in the sorted array. The postings of each word are
+ * stored as variable-byte encoded integers in the following layout, where
+ * document ids and positions are stored as gaps from the previous value:
+ *
+ * <pre>
+ * locations (document gap, position count, position bytes, position gaps...)...
+ * </pre>
+ *
+ * Storing the number of bytes used by the positions lets searches skip over
+ * them, since only the position count is needed to score a result.
+ */
+public class CompactInvertedIndex extends InvertedIndex {
+	/** The name of the segment file within a segment directory. */
+	public static final String SEGMENT_FILE = "index.seg";
+
+	/** Identifies a segment file; the bytes spell "SEGX". */
+	private static final int SEGMENT_MAGIC = 0x53454758;
+
+	/** The version of the segment format. */
+	private static final int SEGMENT_VERSION = 1;
+
+	/** The words in the index, in sorted order. */
+	private final String[] words;
+
+	/** The file path for each document id, in sorted order. */
+	private final String[] locations;
+
+	/** The total number of words for each document id. */
+	private final int[] counts;
+
+	/** The word counts by file path. */
+	private final Map<String, Integer> wordCounts;
+
+	/** The start offset of the postings of each word in the buffer. */
+	private final int[] offsets;
+
+	/** The encoded postings of every word. */
+	private final ByteBuffer postings;
+
+	/**
+	 * Initializes a compact index from already encoded postings.
+	 *
+	 * @param words the words in the index, in sorted order
+	 * @param locations the file path for each document id, in sorted order
+	 * @param counts the total number of words for each document id
+	 * @param offsets the start offset of the postings of each word, followed by
+	 *   the total size of the postings
+	 * @param postings the encoded postings of every word
+	 */
+	private CompactInvertedIndex(String[] words, String[] locations, int[] counts, int[] offsets,
+			ByteBuffer postings) {
+		super(false);
+		this.words = words;
+		this.locations = locations;
+		this.counts = counts;
+		this.wordCounts = countsMap(locations, counts);
+		this.offsets = offsets;
+		this.postings = postings;
+	}
+
+	/**
+	 * Creates a compact index by encoding the postings of each word.
+	 *
+	 * @param words the words in the index, in sorted order
+	 * @param locations the file path for each document id, in sorted order
+	 * @param counts the total number of words for each document id
+	 * @param postings returns the document ids and positions for a word
+	 * @return the compact index
+	 */
+	static CompactInvertedIndex encode(String[] words, String[] locations, int[] counts,
+			Function<String, SortedMap<Integer, PositionList>> postings) {
+		int[] offsets = new int[words.length + 1];
+		ByteArray buffer = new ByteArray();
+		ByteArray positions = new ByteArray();
+
+		for (int i = 0; i < words.length; i++) {
+			offsets[i] = buffer.size();
+			var docs = postings.apply(words[i]);
+			buffer.writeInt(docs.size());
+
+			int previousDoc = 0;
+			for (var entry : docs.entrySet()) {
+				PositionList list = entry.getValue();
+				positions.clear();
+				int previous = 0;
+				for (int j = 0; j < list.size(); j++) {
+					positions.writeInt(list.get(j) - previous);
+					previous = list.get(j);
+				}
+
+				buffer.writeInt(entry.getKey() - previousDoc);
+				buffer.writeInt(list.size());
+				buffer.writeInt(positions.size());
+				buffer.write(positions);
+				previousDoc = entry.getKey();
+			}
+		}
+
+		offsets[words.length] = buffer.size();
+		ByteBuffer encoded = ByteBuffer.wrap(buffer.toByteArray()).asReadOnlyBuffer();
+		return new CompactInvertedIndex(words, locations, counts, offsets, encoded);
+	}
+
+	/**
+	 * Merges several compact indexes into one. Postings are merged one word at a
+	 * time, so only the postings of a single word are decoded at once. If a
+	 * location appears in more than one index, its positions are combined and
+	 * its word counts are added, since each index is expected to hold different
+	 * positions of the location, as with the segments of a
+	 * {@link SegmentedInvertedIndex}.
+	 *
+	 * @param indexes the indexes to merge
+	 * @return the merged index
+	 */
+	static CompactInvertedIndex merge(List<CompactInvertedIndex> indexes) {
+		return merge(indexes, Collections.nCopies(indexes.size(), Set.of()));
+	}
+
+	/**
+	 * Merges several compact indexes into one, leaving out some locations of each
+	 * index, such as the locations removed from the segments of a
+	 * {@link SegmentedInvertedIndex}. Words found only in left out locations are
+	 * left out as well.
+	 *
+	 * @param indexes the indexes to merge
+	 * @param removed the locations to leave out of each index, in the same order
+	 * @return the merged index
+	 *
+	 * @see #merge(List)
+	 */
+	static CompactInvertedIndex merge(List<CompactInvertedIndex> indexes, List<Set<String>> removed) {
+		TreeSet<String> words = new TreeSet<>();
+		TreeMap<String, Integer> merged = new TreeMap<>();
+		for (int i = 0; i < indexes.size(); i++) {
+			CompactInvertedIndex index = indexes.get(i);
+			Set<String> skipped = removed.get(i);
+			for (int id = 0; id < index.words.length; id++) {
+				if (skipped.isEmpty() || index.hasWordExcept(id, skipped)) {
+					words.add(index.words[id]);
+				}
+			}
+			for (int j = 0; j < index.locations.length; j++) {
+				if (!skipped.contains(index.locations[j])) {
+					merged.merge(index.locations[j], index.counts[j], Integer::sum);
+				}
+			}
+		}
+
+		String[] paths = merged.keySet().toArray(String[]::new);
+		int[] totals = merged.values().stream().mapToInt(Integer::intValue).toArray();
+
+		return encode(words.toArray(String[]::new), paths, totals, word -> {
+			TreeMap<Integer, PositionList> postings = new TreeMap<>();
+			for (int i = 0; i < indexes.size(); i++) {
+				for (var entry : indexes.get(i).postingsOf(word).entrySet()) {
+					if (removed.get(i).contains(entry.getKey())) {
+						continue;
+					}
+					int docId = Arrays.binarySearch(paths, entry.getKey());
+					PositionList existing = postings.get(docId);
+					if (existing == null) {
+						postings.put(docId, entry.getValue());
+					}
+					else {
+						existing.addAll(entry.getValue());
+					}
+				}
+			}
+			return postings;
+		});
+	}
+
+	/**
+	 * Writes this index to a segment file in the given directory, creating the
+	 * directory if needed. The segment can be opened again with
+	 * {@link #open(Path)} without rebuilding the index.
+	 *
+	 * <p>
+	 * The segment stores, in order: a header with a magic number and version, the
+	 * document table (path and word count per document), the term dictionary,
+	 * the postings offset of each word, and the encoded postings. Integers are
+	 * big-endian and strings are UTF-8 prefixed by their length in bytes.
+	 *
+	 * <p>
+	 * The segment is written to a temporary file first and then moved into place,
+	 * so a segment opened from the same directory stays readable while it is
+	 * replaced.
+	 *
+	 * @param directory the directory to write the segment to
+	 * @throws IOException if an I/O error occurs writing the segment
+	 */
+	public void writeSegment(Path directory) throws IOException {
+		Files.createDirectories(directory);
+		Path path = directory.resolve(SEGMENT_FILE);
+		Path temporary = directory.resolve(SEGMENT_FILE + ".tmp");
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+			out.writeInt(SEGMENT_MAGIC);
+			out.writeInt(SEGMENT_VERSION);
+
+			out.writeInt(locations.length);
+			for (int i = 0; i < locations.length; i++) {
+				writeString(locations[i], out);
+				out.writeInt(counts[i]);
+			}
+
+			out.writeInt(words.length);
+			for (String word : words) {
+				writeString(word, out);
+			}
+			for (int offset : offsets) {
+				out.writeInt(offset);
+			}
+
+			ByteBuffer source = postings.duplicate();
+			source.clear();
+			byte[] chunk = new byte[8192];
+			while (source.hasRemaining()) {
+				int length = Math.min(chunk.length, source.remaining());
+				source.get(chunk, 0, length);
+				out.write(chunk, 0, length);
+			}
+		}
+
+		Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Opens an index segment previously written by {@link #writeSegment(Path)}.
+	 * The postings are memory-mapped rather than read into the heap, so searches
+	 * can begin as soon as the term dictionary and document table are loaded.
+	 *
+	 * @param directory the directory containing the segment
+	 * @return the compact index backed by the segment
+	 * @throws IOException if an I/O error occurs or the file is not a valid
+	 *   segment
+	 */
+	public static CompactInvertedIndex open(Path directory) throws IOException {
+		Path path = directory.resolve(SEGMENT_FILE);
+
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("Segment is too large to map: " + path);
+			}
+
+			MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.getInt() != SEGMENT_MAGIC || buffer.getInt() != SEGMENT_VERSION) {
+				throw new IOException("Not a supported index segment: " + path);
+			}
+
+			String[] locations = new String[buffer.getInt()];
+			int[] counts = new int[locations.length];
+			for (int i = 0; i < locations.length; i++) {
+				locations[i] = readString(buffer);
+				counts[i] = buffer.getInt();
+			}
+
+			String[] words = new String[buffer.getInt()];
+			for (int i = 0; i < words.length; i++) {
+				words[i] = readString(buffer);
+			}
+			int[] offsets = new int[words.length + 1];
+			for (int i = 0; i < offsets.length; i++) {
+				offsets[i] = buffer.getInt();
+			}
+
+			ByteBuffer postings = buffer.slice(buffer.position(), offsets[words.length]);
+			return new CompactInvertedIndex(words, locations, counts, offsets, postings);
+		}
+		catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+			throw new IOException("Truncated or corrupt index segment: " + path, e);
+		}
+	}
+
+	/**
+	 * Writes a string as its length in UTF-8 bytes followed by the bytes.
+	 *
+	 * @param text the string to write
+	 * @param out the stream to write to
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static void writeString(String text, DataOutputStream out) throws IOException {
+		byte[] bytes = text.getBytes(UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Reads a string written by {@link #writeString(String, DataOutputStream)}.
+	 *
+	 * @param buffer the buffer to read from
+	 * @return the string read
+	 */
+	private static String readString(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		return new String(bytes, UTF_8);
+	}
+
+	/**
+	 * Builds the map of word counts by file path.
+	 *
+	 * @param locations the file path for each document id, in sorted order
+	 * @param counts the total number of words for each document id
+	 * @return an unmodifiable sorted map of word counts
+	 */
+	private static Map<String, Integer> countsMap(String[] locations, int[] counts) {
+		TreeMap<String, Integer> map = new TreeMap<>();
+		for (int i = 0; i < locations.length; i++) {
+			map.put(locations[i], counts[i]);
+		}
+		return Collections.unmodifiableMap(map);
+	}
+
+	/**
+	 * Returns the index of a word in the sorted words, or -1 if not found.
+	 *
+	 * @param word the word to look up
+	 * @return the term id of the word, or -1
+	 */
+	private int termId(String word) {
+		int index = Arrays.binarySearch(words, word);
+		return index < 0 ? -1 : index;
+	}
+
+	/**
+	 * Returns the document id of a file path, or -1 if not found.
+	 *
+	 * @param location the file path to look up
+	 * @return the document id of the location, or -1
+	 */
+	private int documentId(String location) {
+		int index = Arrays.binarySearch(locations, location);
+		return index < 0 ? -1 : index;
+	}
+
+	/**
+	 * Decodes the document ids and positions of a word.
+	 *
+	 * @param termId the term id of the word
+	 * @return a map of file paths to positions, sorted by path
+	 */
+	private TreeMap<String, PositionList> decode(int termId) {
+		TreeMap<String, PositionList> decoded = new TreeMap<>();
+		Cursor cursor = new Cursor(offsets[termId]);
+		int docs = cursor.next();
+		int docId = 0;
+		for (int i = 0; i < docs; i++) {
+			docId += cursor.next();
+			int count = cursor.next();
+			cursor.next();
+			decoded.put(locations[docId], cursor.positions(count));
+		}
+		return decoded;
+	}
+
+	/**
+	 * Moves the cursor to the positions of a document within the postings of a
+	 * word.
+	 *
+	 * @param cursor the cursor to move
+	 * @param termId the term id of the word
+	 * @param target the document id to find
+	 * @return the number of positions for the document, or -1 if the word does
+	 *   not appear in the document
+	 */
+	private int seek(Cursor cursor, int termId, int target) {
+		cursor.offset = offsets[termId];
+		int docs = cursor.next();
+		int docId = 0;
+		for (int i = 0; i < docs; i++) {
+			docId += cursor.next();
+			int count = cursor.next();
+			if (docId == target) {
+				cursor.next();
+				return count;
+			}
+			if (docId > target) {
+				break;
+			}
+			cursor.skip();
+		}
+		return -1;
+	}
+
+	/**
+	 * Checks if a word is found in any location other than the given ones.
+	 *
+	 * @param termId the term id of the word
+	 * @param excluded the locations to ignore
+	 * @return true if the word is found in a location not excluded
+	 */
+	private boolean hasWordExcept(int termId, Set<String> excluded) {
+		Cursor cursor = new Cursor(offsets[termId]);
+		int docs = cursor.next();
+		int docId = 0;
+		for (int i = 0; i < docs; i++) {
+			docId += cursor.next();
+			if (!excluded.contains(locations[docId])) {
+				return true;
+			}
+			cursor.next();
+			cursor.skip();
+		}
+		return false;
+	}
+
+	/**
+	 * Checks if a word is found in any location other than the given ones.
+	 *
+	 * @param word the word to check
+	 * @param excluded the locations to ignore
+	 * @return true if the word is found in a location not excluded
+	 */
+	boolean hasWordExcept(String word, Set<String> excluded) {
+		int termId = termId(word);
+		return termId >= 0 && hasWordExcept(termId, excluded);
+	}
+
+	/**
+	 * Adds the document counts of a word to the counts of a search.
+	 *
+	 * @param matches the counts of the search
+	 * @param termId the term id of the word
+	 */
+	private void countMatches(MatchCounts matches, int termId) {
+		Cursor cursor = new Cursor(offsets[termId]);
+		int docs = cursor.next();
+		matches.expect(docs);
+		int docId = 0;
+		for (int i = 0; i < docs; i++) {
+			docId += cursor.next();
+			matches.add(docId, cursor.next());
+			cursor.skip();
+		}
+	}
+
+	@Override
+	TreeMap<String, PositionList> postingsOf(String word) {
+		int termId = termId(word);
+		return termId >= 0 ? decode(termId) : new TreeMap<>();
+	}
+
+	@Override
+	void forEachMatch(Collection<String> queryWords, boolean isPartial, ObjIntConsumer<String> action) {
+		for (String queryWord : queryWords) {
+			int id = Arrays.binarySearch(words, queryWord);
+			if (id < 0 && !isPartial) {
+				continue;
+			}
+
+			int last = isPartial ? words.length : id + 1;
+			for (id = id < 0 ? -(id + 1) : id; id < last && words[id].startsWith(queryWord); id++) {
+				Cursor cursor = new Cursor(offsets[id]);
+				int docs = cursor.next();
+				int docId = 0;
+				for (int i = 0; i < docs; i++) {
+					docId += cursor.next();
+					action.accept(locations[docId], cursor.next());
+					cursor.skip();
+				}
+			}
+		}
+	}
+
+	@Override
+	public CompactInvertedIndex freeze() {
+		return this;
+	}
+
+	/**
+	 * Not supported, since a compact index cannot be modified.
+	 *
+	 * @param other the index to merge into this one
+	 * @throws UnsupportedOperationException always
+	 */
+	@Override
+	public void merge(InvertedIndex other) {
+		throw new UnsupportedOperationException("Cannot modify a compact index.");
+	}
+
+	/**
+	 * Not supported, since a compact index cannot be modified.
+	 *
+	 * @param word the word to add
+	 * @param location the file path where the word was found
+	 * @param position the position of the word in the file
+	 * @throws UnsupportedOperationException always
+	 */
+	@Override
+	public void addWord(String word, String location, int position) {
+		throw new UnsupportedOperationException("Cannot modify a compact index.");
+	}
+
+	/**
+	 * Not supported, since a compact index cannot be modified.
+	 *
+	 * @param other the index to merge from
+	 * @param words the words to merge
+	 * @return never returns normally
+	 * @throws UnsupportedOperationException always
+	 */
+	@Override
+	Map<String, Integer> mergePostings(InvertedIndex other, Iterable<String> words) {
+		throw new UnsupportedOperationException("Cannot modify a compact index.");
+	}
+
+	/**
+	 * Not supported, since a compact index cannot be modified.
+	 *
+	 * @param word the word to add
+	 * @param location the file path where the word was found
+	 * @param position the position of the word in the file
+	 * @return never returns normally
+	 * @throws UnsupportedOperationException always
+	 */
+	@Override
+	boolean addPosition(String word, String location, int position) {
+		throw new UnsupportedOperationException("Cannot modify a compact index.");
+	}
+
+	/**
+	 * Not supported, since a compact index cannot be modified.
+	 *
+	 * @param location the file path to remove
+	 * @return never returns normally
+	 * @throws UnsupportedOperationException always
+	 */
+	@Override
+	public boolean removeLocation(String location) {
+		throw new UnsupportedOperationException("Cannot modify a compact index.");
+	}
+
+	/**
+	 * Not supported, since a compact index cannot be modified.
+	 *
+	 * @param words An array of words to add.
+	 * @param location The file path where the words are found.
+	 * @param startPosition The position of the first word in the file.
+	 * @throws UnsupportedOperationException always
+	 */
+	@Override
+	public void addWords(String[] words, String location, int startPosition) {
+		throw new UnsupportedOperationException("Cannot modify a compact index.");
+	}
+
+	/**
+	 * Not supported, since a compact index cannot be modified.
+	 *
+	 * @param location the file path or URL of the document
+	 * @param stems the stems of the document in order
+	 * @throws UnsupportedOperationException always
+	 */
+	@Override
+	public void addDocument(String location, Iterator<String> stems) {
+		throw new UnsupportedOperationException("Cannot modify a compact index.");
+	}
+
+	/**
+	 * Not supported, since a compact index cannot be modified.
+	 *
+	 * @param location the file path where the words are found
+	 * @param terms the positions of each word, in sorted order by word
+	 * @return never returns normally
+	 * @throws UnsupportedOperationException always
+	 */
+	@Override
+	int addPostings(String location, Collection<Map.Entry<String, PositionList>> terms) {
+		throw new UnsupportedOperationException("Cannot modify a compact index.");
+	}
+
+	@Override
+	public void writeIndex(Path path) throws IOException {
+		if (path != null) {
+			JsonWriter.writeNestedMap(new IndexView(viewWords(), this::postingsOf), path);
+		}
+	}
+
+	@Override
+	public void writeCounts(Path path) throws IOException {
+		if (path != null) {
+			JsonWriter.writeObject(wordCounts, path);
+		}
+	}
+
+	@Override
+	void matches(Set<String> queryWords, boolean isPartial, Ranking ranking) {
+		MatchCounts matches = new MatchCounts();
+		for (String queryWord : queryWords) {
+			if (!isPartial) {
+				int id = termId(queryWord);
+				if (id >= 0) {
+					countMatches(matches, id);
+				}
+				continue;
+			}
+
+			int id = Arrays.binarySearch(words, queryWord);
+			for (id = id < 0 ? -(id + 1) : id; id < words.length && words[id].startsWith(queryWord); id++) {
+				countMatches(matches, id);
+			}
+		}
+
+		for (int i = 0; i < matches.size(); i++) {
+			int docId = matches.id(i);
+			ranking.offer(locations[docId], matches.count(i), counts[docId]);
+		}
+	}
+
+	@Override
+	public boolean hasWord(String word) {
+		return termId(word) >= 0;
+	}
+
+	@Override
+	public boolean hasLocation(String word, String location) {
+		int termId = termId(word);
+		int docId = documentId(location);
+		return termId >= 0 && docId >= 0 && seek(new Cursor(0), termId, docId) >= 0;
+	}
+
+	@Override
+	public boolean hasPosition(String word, String location, Integer position) {
+		return viewPositions(word, location).contains(position);
+	}
+
+	@Override
+	public int numPositions(String word, String location) {
+		int termId = termId(word);
+		int docId = documentId(location);
+		return termId >= 0 && docId >= 0 ? Math.max(0, seek(new Cursor(0), termId, docId)) : 0;
+	}
+
+	@Override
+	public int numWords() {
+		return words.length;
+	}
+
+	@Override
+	public int numLocations(String word) {
+		int termId = termId(word);
+		return termId >= 0 ? new Cursor(offsets[termId]).next() : 0;
+	}
+
+	@Override
+	public Set<String> viewWords() {
+		return new SortedArraySet(words);
+	}
+
+	@Override
+	public Set<String> viewLocations(String word) {
+		int termId = termId(word);
+		if (termId < 0) {
+			return Collections.emptySet();
+		}
+
+		Cursor cursor = new Cursor(offsets[termId]);
+		String[] found = new String[cursor.next()];
+		int docId = 0;
+		for (int i = 0; i < found.length; i++) {
+			docId += cursor.next();
+			cursor.next();
+			cursor.skip();
+			found[i] = locations[docId];
+		}
+		return new SortedArraySet(found);
+	}
+
+	@Override
+	public Set<Integer> viewPositions(String word, String location) {
+		int termId = termId(word);
+		int docId = documentId(location);
+		if (termId >= 0 && docId >= 0) {
+			Cursor cursor = new Cursor(0);
+			int count = seek(cursor, termId, docId);
+			if (count >= 0) {
+				return Collections.unmodifiableSet(cursor.positions(count));
+			}
+		}
+		return Collections.emptySet();
+	}
+
+	@Override
+	public Map<String, Integer> viewCounts() {
+		return wordCounts;
+	}
+
+	@Override
+	public int getWordCount(String path) {
+		return wordCounts.getOrDefault(path, 0);
+	}
+
+	/**
+	 * Returns the number of bytes used to store the encoded postings.
+	 *
+	 * @return the size of the postings buffer in bytes
+	 */
+	public int postingsSize() {
+		return postings.capacity();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < words.length; i++) {
+			builder.append(words[i]).append(": ");
+			builder.append(decode(i).toString());
+			builder.append(System.lineSeparator());
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Reads variable-byte encoded integers from the postings buffer. Uses absolute
+	 * reads so multiple cursors can share the buffer across threads.
+	 */
+	private class Cursor {
+		/** The offset of the next byte to read. */
+		private int offset;
+
+		/**
+		 * Initializes a cursor at the given offset.
+		 *
+		 * @param offset the offset of the first byte to read
+		 */
+		public Cursor(int offset) {
+			this.offset = offset;
+		}
+
+		/**
+		 * Reads the next encoded integer.
+		 *
+		 * @return the decoded integer
+		 */
+		public int next() {
+			int value = 0;
+			int shift = 0;
+			byte current;
+			do {
+				current = postings.get(offset++);
+				value |= (current & 0x7F) << shift;
+				shift += 7;
+			} while (current < 0);
+			return value;
+		}
+
+		/**
+		 * Reads the number of bytes used by the positions of a document and skips
+		 * over them.
+		 */
+		public void skip() {
+			int length = next();
+			offset += length;
+		}
+
+		/**
+		 * Reads the given number of position gaps into a list of positions.
+		 *
+		 * @param count the number of positions to read
+		 * @return the decoded positions
+		 */
+		public PositionList positions(int count) {
+			PositionList list = new PositionList();
+			int position = 0;
+			for (int i = 0; i < count; i++) {
+				position += next();
+				list.add(position);
+			}
+			return list;
+		}
+	}
+
+	/**
+	 * A growable byte array that writes variable-byte encoded integers, where each
+	 * byte holds seven bits of the value and the high bit marks that more bytes
+	 * follow.
+	 */
+	private static class ByteArray {
+		/** The bytes written so far. */
+		private byte[] bytes = new byte[64];
+
+		/** The number of bytes written. */
+		private int size = 0;
+
+		/**
+		 * Initializes an empty byte array.
+		 */
+		private ByteArray() {
+		}
+
+		/**
+		 * Writes an integer using as few bytes as possible. Negative values are
+		 * treated as unsigned and use five bytes.
+		 *
+		 * @param value the integer to write
+		 */
+		public void writeInt(int value) {
+			ensureCapacity(size + 5);
+			while ((value & ~0x7F) != 0) {
+				bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			bytes[size++] = (byte) value;
+		}
+
+		/**
+		 * Writes the contents of another byte array.
+		 *
+		 * @param other the bytes to write
+		 */
+		public void write(ByteArray other) {
+			ensureCapacity(size + other.size);
+			System.arraycopy(other.bytes, 0, bytes, size, other.size);
+			size += other.size;
+		}
+
+		/**
+		 * Returns the number of bytes written.
+		 *
+		 * @return the number of bytes written
+		 */
+		public int size() {
+			return size;
+		}
+
+		/**
+		 * Discards the bytes written so the array can be reused.
+		 */
+		public void clear() {
+			size = 0;
+		}
+
+		/**
+		 * Returns a copy of the bytes written, trimmed to size.
+		 *
+		 * @return the bytes written
+		 */
+		public byte[] toByteArray() {
+			return Arrays.copyOf(bytes, size);
+		}
+
+		/**
+		 * Grows the array if needed to hold the given number of bytes.
+		 *
+		 * @param capacity the number of bytes to hold
+		 */
+		private void ensureCapacity(int capacity) {
+			if (capacity > bytes.length) {
+				bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length * 2));
+			}
+		}
+	}
+
+	/**
+	 * A read-only set view of a sorted array of strings.
+	 */
+	private static class SortedArraySet extends AbstractSet<String> {
+		/** The elements, in sorted order. */
+		private final String[] elements;
+
+		/**
+		 * Initializes a view of the given sorted array.
+		 *
+		 * @param elements the elements, in sorted order
+		 */
+		public SortedArraySet(String[] elements) {
+			this.elements = elements;
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			return o instanceof String element && Arrays.binarySearch(elements, element) >= 0;
+		}
+
+		@Override
+		public Iterator<String> iterator() {
+			return Collections.unmodifiableList(Arrays.asList(elements)).iterator();
+		}
+
+		@Override
+		public int size() {
+			return elements.length;
+		}
+	}
+}
@@ -0,0 +1,57 @@
+package edu.usfca.cs272;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+/**
+ * An inverted index that may be added to, removed from and searched by several
+ * threads at once. Implementations keep none of the structures of a regular
+ * {@link InvertedIndex}, and override every method that would use them.
+ *
+ * @see ThreadSafeInvertedIndex
+ * @see SegmentedInvertedIndex
+ */
+public abstract class ConcurrentInvertedIndex extends InvertedIndex {
+	/** The most stems of a file buffered at once before adding them to the index. */
+	public static final int CHUNK_SIZE = 4096;
+
+	/**
+	 * Initializes an index without any structures of a regular inverted index.
+	 */
+	protected ConcurrentInvertedIndex() {
+		super(false);
+	}
+
+	/**
+	 * Adds the stems of a location at sequential positions.
+	 *
+	 * @param stems List of stems to add
+	 * @param location The file path where the words are found
+	 * @param startPosition The position of the first word in the file
+	 */
+	public abstract void addAllStems(ArrayList<String> stems, String location, int startPosition);
+
+	/**
+	 * Reads, stems and adds a file to the index with the default stemmer for
+	 * English.
+	 *
+	 * @param file the file to add
+	 * @throws IOException if unable to read the file
+	 *
+	 * @see #addFile(Path, Analyzer)
+	 */
+	public void addFile(Path file) throws IOException {
+		addFile(file, Analyzer.ENGLISH);
+	}
+
+	/**
+	 * Reads, stems and adds a file to the index with an analyzer, in chunks of at
+	 * most {@link #CHUNK_SIZE} stems.
+	 *
+	 * @param file the file to add
+	 * @param analyzer the analyzer to stem the file with
+	 * @throws IOException if unable to read the file
+	 */
+	public abstract void addFile(Path file, Analyzer analyzer) throws IOException;
+}
@@ -6,10 +6,16 @@ import java.nio.file.Path;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import opennlp.tools.stemmer.snowball.SnowballStemmer.ALGORITHM;
+
 /**
  * The main driver class. This class parses command-line arguments to build an
  * inverted index and outputs the index or word counts to JSON files.
@@ -32,7 +38,38 @@ public class Driver {
 		// Store initial start time
 		Instant start = Instant.now();
 		ArgumentParser parser = new ArgumentParser(args);
-		boolean isThreaded = parser.hasFlag("-threads") || parser.hasFlag("-html");
+		boolean isThreaded = parser.hasFlag("-threads") || parser.hasFlag("-html") || parser.hasFlag("-watch");
+		boolean isLoaded = parser.hasFlag("-load");
+		boolean isIncremental = parser.hasFlag("-incremental");
+		Path savePath = parser.getPath("-save", Path.of("segment"));
+		IndexManifest manifest = null;
+
+		// Choose how words are stemmed, for both indexing and searching
+		Set<String> stopWords = Set.of();
+		if (parser.hasFlag("-stopwords")) {
+			try {
+				stopWords = Analyzer.readStopWords(parser.getPath("-stopwords", Path.of("stopwords.txt")));
+			}
+			catch (IOException e) {
+				System.out.println("Unable to read stop words, keeping every word. (-stopwords flag)");
+			}
+		}
+
+		String language = parser.getString("-language", "english");
+		boolean isMultilingual = language.equalsIgnoreCase("auto");
+		ALGORITHM algorithm = isMultilingual ? ALGORITHM.ENGLISH : Analyzer.findLanguage(language);
+		if (algorithm == null) {
+			System.out.println("Unknown language, stemming in English instead. (-language flag)");
+			algorithm = ALGORITHM.ENGLISH;
+		}
+		Analyzer analyzer = new Analyzer(algorithm, stopWords, isMultilingual);
+
+		// Choose how many results to keep for each query
+		int requested = parser.getInteger("-limit", Integer.MAX_VALUE);
+		if (requested < 1) {
+			System.out.println("Number of results must be positive, keeping every result instead. (-limit flag)");
+		}
+		int limit = requested < 1 ? Integer.MAX_VALUE : requested;
 
 		// Use the new InvertedIndex class
 		InvertedIndex invertedIndex;
@@ -53,15 +90,58 @@ public class Driver {
 				numThreads = 5;
 			}
 
-			WorkQueue queue = new WorkQueue(numThreads);
+			int capacity = parser.getInteger("-capacity", WorkQueue.UNBOUNDED);
+			if (capacity <= 0) {
+				capacity = WorkQueue.UNBOUNDED;
+			}
+
+			WorkQueue.Backpressure backpressure = WorkQueue.Backpressure.BLOCK;
+			try {
+				String policy = parser.getString("-backpressure", "block");
+				backpressure = WorkQueue.Backpressure.valueOf(policy.toUpperCase().replace('-', '_'));
+			}
+			catch (IllegalArgumentException e) {
+				System.out.println("Unknown backpressure policy, blocking instead. (-backpressure flag)");
+			}
+			if (backpressure == WorkQueue.Backpressure.DROP_OLDEST) {
+				System.out.println("Dropping tasks would lose work, blocking instead. (-backpressure flag)");
+				backpressure = WorkQueue.Backpressure.BLOCK;
+			}
+
+			MultithreadedInvertedIndexBuilder.Order order = MultithreadedInvertedIndexBuilder.Order.DEPTH_FIRST;
+			try {
+				String traversal = parser.getString("-traversal", "depth-first");
+				order = MultithreadedInvertedIndexBuilder.Order.valueOf(traversal.toUpperCase().replace('-', '_'));
+			}
+			catch (IllegalArgumentException e) {
+				System.out.println("Unknown traversal order, traversing depth-first instead. (-traversal flag)");
+			}
+
+			WorkQueue.Scheduler scheduler = parser.hasFlag("-stealing") ? WorkQueue.Scheduler.STEALING
+					: WorkQueue.Scheduler.SHARED;
+			boolean isVirtual = parser.hasFlag("-virtual");
+			WorkQueue queue = new WorkQueue(numThreads, scheduler, isVirtual, capacity, backpressure);
+			// Keep a worker free of crawling and merging for indexing and queries
+			queue.limit(WorkQueue.Lane.BACKGROUND, Math.max(1, numThreads - 1));
 			boolean isPartial = parser.hasFlag("-partial");
-			invertedIndex = new ThreadSafeInvertedIndex();
-			threadSafeProcessor = new ThreadSafeQueryProcessor((ThreadSafeInvertedIndex) invertedIndex, isPartial, queue);
+			ConcurrentInvertedIndex threadSafeIndex = parser.hasFlag("-segments") ? new SegmentedInvertedIndex(queue)
+					: new ThreadSafeInvertedIndex();
+			invertedIndex = threadSafeIndex;
 
 			// Multi Threading
 			try {
+				// Parse the queries while the index is built
+				Path queryPath = parser.hasFlag("-query") ? parser.getPath("-query") : null;
+				CompletableFuture<Collection<TreeSet<String>>> queries = queryPath == null ? null
+						: ThreadSafeQueryProcessor.parseQueryFile(queryPath, queue, analyzer);
+
+				// Load a saved index segment instead of building one
+				if (isLoaded) {
+					invertedIndex = CompactInvertedIndex.open(parser.getPath("-load", Path.of("segment")));
+				}
+
 				// Handle web crawling if -html flag is present
-				if (parser.hasFlag("-html")) {
+				if (parser.hasFlag("-html") && !isLoaded) {
 					String seed = parser.getString("-html");
 					int crawls = 1; // Default to 1
 					if (parser.hasFlag("-crawl")) {
@@ -70,7 +150,7 @@ public class Driver {
 							crawls = 1;
 						}
 					}
-					WebCrawler crawler = new WebCrawler((ThreadSafeInvertedIndex) invertedIndex, queue, crawls);
+					WebCrawler crawler = new WebCrawler(threadSafeIndex, queue, crawls, analyzer);
 					if (!parser.hasValue("-html")) {
 						System.out.println("-html flag present but has no value");
 					}
@@ -85,21 +165,30 @@ public class Driver {
 
 				}
 				// Handle text processing
-				if (parser.hasFlag("-text")) {
+				if (parser.hasFlag("-text") && !isLoaded) {
 					Path textPath = parser.getPath("-text");
-					if (textPath != null) {
-						MultithreadedInvertedIndexBuilder.build(textPath, (ThreadSafeInvertedIndex) invertedIndex, queue);
+					if (textPath != null && isIncremental) {
+						manifest = MultithreadedInvertedIndexBuilder.update(textPath, threadSafeIndex, queue, savePath,
+								analyzer);
+					}
+					else if (textPath != null) {
+						MultithreadedInvertedIndexBuilder.build(textPath, threadSafeIndex, queue, order, analyzer);
 					}
 				}
 
+				// Compact the index once building is complete
+				if (parser.hasFlag("-freeze")) {
+					invertedIndex = invertedIndex.freeze();
+				}
+				threadSafeProcessor = new ThreadSafeQueryProcessor(invertedIndex, isPartial, queue, analyzer, limit);
+
 				// Handle query processing
 				if (parser.hasFlag("-query")) {
-					Path queryPath = parser.getPath("-query");
-					if (queryPath == null) {
+					if (queries == null) {
 						System.out.println("Error: Invalid or missing query path.");
 						return;
 					}
-					threadSafeProcessor.processQueryFile(queryPath);
+					threadSafeProcessor.processQueries(queries);
 				}
 
 				// Handle results writing
@@ -119,12 +208,38 @@ public class Driver {
 					Path indexPath = parser.getPath("-index", Path.of("index.json"));
 					invertedIndex.writeIndex(indexPath);
 				}
+
+				// Handle segment output, along with the manifest when updating
+				if (parser.hasFlag("-save") || manifest != null) {
+					invertedIndex.freeze().writeSegment(savePath);
+					if (manifest != null) {
+						manifest.write(savePath);
+					}
+				}
+
+				// Keep the index and outputs up to date until interrupted
+				if (parser.hasFlag("-watch")) {
+					Path watchPath = parser.getPath("-watch", parser.getPath("-text"));
+					if (watchPath == null) {
+						System.out.println("Error: Invalid or missing watch path. (-watch flag)");
+					}
+					else if (invertedIndex instanceof ConcurrentInvertedIndex watchedIndex) {
+						Runnable listener = () -> refresh(parser, watchedIndex, isPartial, queue, analyzer, limit);
+						new IndexWatcher(watchPath, watchedIndex, queue, analyzer, listener).run();
+					}
+					else {
+						System.out.println("Cannot watch a frozen or loaded index. (-watch flag)");
+					}
+				}
 			}
 			catch (Exception e) {
 				System.err.println("Error during threaded processing: " + e.getMessage());
 			}
 			finally {
 //			// Make sure to finish the work queue
+				if (threadSafeIndex instanceof SegmentedInvertedIndex segmentedIndex) {
+					segmentedIndex.awaitMerges();
+				}
 				queue.join();
 //			}
 			}
@@ -133,35 +248,30 @@ public class Driver {
 		else {
 			invertedIndex = new InvertedIndex();
 			boolean isPartial = parser.hasFlag("-partial");
-			processor = new QueryProcessor(invertedIndex, isPartial);
 
 			try {
-				// Handle web crawling if -html flag is present
-				if (parser.hasFlag("-html")) {
-					String seed = parser.getString("-html");
-					WorkQueue singleQueue = new WorkQueue(1);
-					WebCrawler crawler = new WebCrawler((ThreadSafeInvertedIndex)invertedIndex, singleQueue, 1);
-					if (!parser.hasValue("-html")) {
-						System.out.println("-html flag present but has no value");
-					}
-					else {
-						try {
-							crawler.crawl(seed);
-						}
-						catch (Exception e) {
-							System.out.println("Error crawling web. (-html flag)");
-						}
-					}
-					singleQueue.shutdown();
+				// Load a saved index segment instead of building one
+				if (isLoaded) {
+					invertedIndex = CompactInvertedIndex.open(parser.getPath("-load", Path.of("segment")));
 				}
+
 				// Handle text processing
-				if (parser.hasFlag("-text")) {
+				if (parser.hasFlag("-text") && !isLoaded) {
 					Path textPath = parser.getPath("-text");
-					if (textPath != null) {
-						InvertedIndexBuilder.build(textPath, invertedIndex);
+					if (textPath != null && isIncremental) {
+						manifest = InvertedIndexBuilder.update(textPath, invertedIndex, savePath, analyzer);
+					}
+					else if (textPath != null) {
+						InvertedIndexBuilder.build(textPath, invertedIndex, analyzer);
 					}
 				}
 
+				// Compact the index once building is complete
+				if (parser.hasFlag("-freeze")) {
+					invertedIndex = invertedIndex.freeze();
+				}
+				processor = new QueryProcessor(invertedIndex, isPartial, analyzer, limit);
+
 				// Handle query processing
 				if (parser.hasFlag("-query")) {
 					Path queryPath = parser.getPath("-query");
@@ -189,6 +299,14 @@ public class Driver {
 					Path indexPath = parser.getPath("-index", Path.of("index.json"));
 					invertedIndex.writeIndex(indexPath);
 				}
+
+				// Handle segment output, along with the manifest when updating
+				if (parser.hasFlag("-save") || manifest != null) {
+					invertedIndex.freeze().writeSegment(savePath);
+					if (manifest != null) {
+						manifest.write(savePath);
+					}
+				}
 			}
 			catch (IOException e) {
 				System.err.println("Error during non-threaded processing: " + e.getMessage());
@@ -201,4 +319,41 @@ public class Driver {
 		System.out.printf("Elapsed: %f seconds%n", seconds);
 
 	}
+
+	/**
+	 * Searches an updated index again and rewrites the outputs requested by the
+	 * command-line arguments.
+	 *
+	 * @param parser the parsed command-line arguments
+	 * @param invertedIndex the updated index
+	 * @param isPartial whether to use partial search
+	 * @param queue the work queue to search with
+	 * @param analyzer the analyzer to stem queries with
+	 * @param limit the most results to keep for each query
+	 */
+	private static void refresh(ArgumentParser parser, ConcurrentInvertedIndex invertedIndex, boolean isPartial,
+			WorkQueue queue, Analyzer analyzer, int limit) {
+		try {
+			ThreadSafeQueryProcessor threadSafeProcessor = new ThreadSafeQueryProcessor(invertedIndex, isPartial, queue,
+					analyzer, limit);
+			if (parser.hasFlag("-query") && parser.getPath("-query") != null) {
+				threadSafeProcessor.processQueryFile(parser.getPath("-query"));
+			}
+
+			if (parser.hasFlag("-results")) {
+				threadSafeProcessor.writeResults(parser.getPath("-results", Path.of("results.json")));
+			}
+
+			if (parser.hasFlag("-counts")) {
+				invertedIndex.writeCounts(parser.getPath("-counts", Path.of("counts.json")));
+			}
+
+			if (parser.hasFlag("-index")) {
+				invertedIndex.writeIndex(parser.getPath("-index", Path.of("index.json")));
+			}
+		}
+		catch (IOException e) {
+			System.out.println("Error writing updated outputs. (-watch flag)");
+		}
+	}
 }
@@ -1,7 +1,5 @@
 package edu.usfca.cs272;
 
-import static opennlp.tools.stemmer.snowball.SnowballStemmer.ALGORITHM.ENGLISH;
-
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
@@ -10,12 +8,13 @@ import java.nio.file.Path;
 import java.text.Normalizer;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
 import java.util.regex.Pattern;
 
 import opennlp.tools.stemmer.Stemmer;
-import opennlp.tools.stemmer.snowball.SnowballStemmer;
-import opennlp.tools.stemmer.snowball.SnowballStemmer.ALGORITHM;
 
 /**
  * Utility class for parsing, cleaning, and stemming text and text files into
@@ -56,16 +55,24 @@ public class FileStemmer {
 	}
 
 	/**
-	 * Parses the text into an array of clean words.
+	 * Parses the text into an array of clean words, the same as splitting the
+	 * cleaned text but in a single pass. Empty words are never returned.
 	 *
 	 * @param text the text to clean and split
 	 * @return an array of {@link String} objects
 	 *
 	 * @see #clean(String)
-	 * @see #parse(String)
+	 * @see #split(String)
+	 * @see TextTokenizer
 	 */
 	public static String[] parse(String text) {
-		return split(clean(text));
+		ArrayList<String> words = new ArrayList<>();
+		TextTokenizer tokenizer = new TextTokenizer(text);
+		CharSequence word;
+		while ((word = tokenizer.next()) != null) {
+			words.add(word.toString());
+		}
+		return words.toArray(String[]::new);
 	}
 
 	/**
@@ -82,8 +89,9 @@ public class FileStemmer {
 	 */
 	// CITE: Asynch lecture
 	public static void addStems(String line, Stemmer stemmer, Collection<String> stems) {
-		String[] words = parse(line);
-		for (String word : words) {
+		TextTokenizer tokenizer = new TextTokenizer(line);
+		CharSequence word;
+		while ((word = tokenizer.next()) != null) {
 			stems.add(stemmer.stem(word).toString());
 		}
 	}
@@ -105,6 +113,22 @@ public class FileStemmer {
 		return stems;
 	}
 
+	/**
+	 * Parses the line into a list of stems with an analyzer, leaving out any stop
+	 * words.
+	 *
+	 * @param line the line of words to clean, split, and stem
+	 * @param analyzer the analyzer to use
+	 * @return a list of stems in parsed order
+	 *
+	 * @see Analyzer#analyze(CharSequence, Consumer)
+	 */
+	public static ArrayList<String> listStems(String line, Analyzer analyzer) {
+		ArrayList<String> stems = new ArrayList<>();
+		analyzer.analyze(line, stems::add);
+		return stems;
+	}
+
 	/**
 	 * Parses the line into a list of cleaned and stemmed words using the default
 	 * stemmer for English.
@@ -112,45 +136,134 @@ public class FileStemmer {
 	 * @param line the line of words to parse and stem
 	 * @return a list of cleaned and stemmed words in parsed order
 	 *
-	 * @see SnowballStemmer#SnowballStemmer(ALGORITHM)
-	 * @see ALGORITHM#ENGLISH
+	 * @see CachingStemmer#ENGLISH
 	 * @see #listStems(String, Stemmer)
 	 */
 	// CITE: Instructions
 	public static ArrayList<String> listStems(String line) {
-		Stemmer stemmer = new SnowballStemmer(ENGLISH);
+		Stemmer stemmer = CachingStemmer.ENGLISH;
 		return listStems(line, stemmer);
 	}
 
 	/**
-	 * Reads a file line by line, parses each line into cleaned and stemmed words
-	 * using the default stemmer for English.
+	 * Reads a file word by word, parsing it into cleaned and stemmed words using
+	 * the default stemmer for English.
 	 *
 	 * @param input the input file to parse and stem
 	 * @return a list of stems from file in parsed order
 	 * @throws IOException if unable to read or parse file
 	 *
-	 * @see SnowballStemmer
-	 * @see ALGORITHM#ENGLISH
-	 * @see StandardCharsets#UTF_8
-	 * @see #listStems(String, Stemmer)
+	 * @see CachingStemmer#ENGLISH
+	 * @see FileTokenizer
 	 */
-	// CITE: Some stackoverflow to remember how to use BufferedReader and Asynch
-	// lecture
 	public static ArrayList<String> listStems(Path input) throws IOException {
-		Stemmer stemmer = new SnowballStemmer(ENGLISH);
+		return listStems(input, 0, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Parses a range of a file into cleaned and stemmed words using the default
+	 * stemmer for English.
+	 *
+	 * @param input the input file to parse and stem
+	 * @param start the offset in the file to start reading at
+	 * @param end the offset in the file to stop reading at
+	 * @return a list of stems from the range in parsed order
+	 * @throws IOException if unable to read or parse file
+	 *
+	 * @see #listStems(Path, long, long, Analyzer)
+	 */
+	public static ArrayList<String> listStems(Path input, long start, long end) throws IOException {
+		return listStems(input, start, end, Analyzer.ENGLISH);
+	}
+
+	/**
+	 * Parses a range of a file into stems with an analyzer, leaving out any stop
+	 * words.
+	 *
+	 * @param input the input file to parse and stem
+	 * @param start the offset in the file to start reading at
+	 * @param end the offset in the file to stop reading at
+	 * @param analyzer the analyzer to use
+	 * @return a list of stems from the range in parsed order
+	 * @throws IOException if unable to read or parse file
+	 *
+	 * @see FileTokenizer#FileTokenizer(Path, long, long)
+	 * @see FileTokenizer#split(Path, long)
+	 */
+	public static ArrayList<String> listStems(Path input, long start, long end, Analyzer analyzer)
+			throws IOException {
 		ArrayList<String> stems = new ArrayList<>();
-		try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8)) {
-			String line = reader.readLine();
-			while (line!= null) {
-				addStems(line, stemmer, stems);
-				line = reader.readLine();
+		try (FileTokenizer tokenizer = new FileTokenizer(input, start, end)) {
+			CharSequence word;
+			while ((word = tokenizer.next()) != null) {
+				String stem = analyzer.stem(word);
+				if (stem != null) {
+					stems.add(stem);
+				}
 			}
 		}
 
 		return stems;
 	}
 
+	/**
+	 * Reads a file one word at a time with a {@link FileTokenizer} and passes its
+	 * stems to the consumer in chunks of at most the given size, along with the
+	 * position of the first stem of each chunk, so the stems of a file never need
+	 * to be held in memory all at once.
+	 * The same list is reused for every chunk, so the consumer must not keep it.
+	 *
+	 * @param input the input file to parse and stem
+	 * @param chunkSize the most stems to pass to the consumer at once
+	 * @param consumer the consumer of each chunk and its starting position
+	 * @throws IOException if unable to read or parse file
+	 *
+	 * @see #listStems(Path)
+	 */
+	public static void streamStems(Path input, int chunkSize, ObjIntConsumer<List<String>> consumer)
+			throws IOException {
+		streamStems(input, chunkSize, Analyzer.ENGLISH, consumer);
+	}
+
+	/**
+	 * Reads a file and passes its stems to the consumer in chunks, using an
+	 * analyzer that may leave out stop words.
+	 *
+	 * @param input the input file to parse and stem
+	 * @param chunkSize the most stems to pass to the consumer at once
+	 * @param analyzer the analyzer to use
+	 * @param consumer the consumer of each chunk and its starting position
+	 * @throws IOException if unable to read or parse file
+	 *
+	 * @see #streamStems(Path, int, ObjIntConsumer)
+	 */
+	public static void streamStems(Path input, int chunkSize, Analyzer analyzer,
+			ObjIntConsumer<List<String>> consumer) throws IOException {
+		ArrayList<String> chunk = new ArrayList<>(chunkSize);
+		int position = 1;
+
+		try (FileTokenizer tokenizer = new FileTokenizer(input)) {
+			CharSequence word;
+			while ((word = tokenizer.next()) != null) {
+				String stem = analyzer.stem(word);
+				if (stem == null) {
+					continue;
+				}
+
+				chunk.add(stem);
+				if (chunk.size() == chunkSize) {
+					consumer.accept(chunk, position);
+					position += chunk.size();
+					chunk.clear();
+				}
+			}
+		}
+
+		if (!chunk.isEmpty()) {
+			consumer.accept(chunk, position);
+		}
+	}
+
 	/**
 	 * Parses the line into a set of unique, sorted, cleaned, and stemmed words.
 	 *
@@ -168,6 +281,22 @@ public class FileStemmer {
 		return uniqueStems;
 	}
 
+	/**
+	 * Parses the line into a set of unique, sorted stems with an analyzer, leaving
+	 * out any stop words.
+	 *
+	 * @param line the line of words to parse and stem
+	 * @param analyzer the analyzer to use
+	 * @return a sorted set of unique stems
+	 *
+	 * @see Analyzer#analyze(CharSequence, Consumer)
+	 */
+	public static TreeSet<String> uniqueStems(String line, Analyzer analyzer) {
+		TreeSet<String> uniqueStems = new TreeSet<>();
+		analyzer.analyze(line, uniqueStems::add);
+		return uniqueStems;
+	}
+
 	/**
 	 * Parses the line into a set of unique, sorted, cleaned, and stemmed words
 	 * using the default stemmer for English.
@@ -175,36 +304,33 @@ public class FileStemmer {
 	 * @param line the line of words to parse and stem
 	 * @return a sorted set of unique cleaned and stemmed words
 	 *
-	 * @see SnowballStemmer#SnowballStemmer(ALGORITHM)
-	 * @see ALGORITHM#ENGLISH
+	 * @see CachingStemmer#ENGLISH
 	 * @see #uniqueStems(String, Stemmer)
 	 */
 	public static TreeSet<String> uniqueStems(String line) {
-		Stemmer stemmer = new SnowballStemmer(ENGLISH);
+		Stemmer stemmer = CachingStemmer.ENGLISH;
 		return uniqueStems(line, stemmer);
 	}
 
 	/**
-	 * Reads a file line by line, parses each line into a set of unique, sorted,
-	 * cleaned, and stemmed words using the default stemmer for English.
+	 * Reads a file word by word, parsing it into a set of unique, sorted, cleaned,
+	 * and stemmed words using the default stemmer for English.
 	 *
 	 * @param input the input file to parse and stem
 	 * @return a sorted set of unique cleaned and stemmed words from file
 	 * @throws IOException if unable to read or parse file
 	 *
-	 * @see SnowballStemmer
-	 * @see ALGORITHM#ENGLISH
-	 * @see StandardCharsets#UTF_8
-	 * @see #uniqueStems(String, Stemmer)
+	 * @see CachingStemmer#ENGLISH
+	 * @see FileTokenizer
 	 */
 	public static TreeSet<String> uniqueStems(Path input) throws IOException {
-		Stemmer stemmer = new SnowballStemmer(ENGLISH);
+		Stemmer stemmer = CachingStemmer.ENGLISH;
 		TreeSet<String> uniqueStems = new TreeSet<>();
 
-		try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8)) {
-			String line;
-			while ((line = reader.readLine()) != null) {
-				addStems(line, stemmer, uniqueStems);
+		try (FileTokenizer tokenizer = new FileTokenizer(input)) {
+			CharSequence word;
+			while ((word = tokenizer.next()) != null) {
+				uniqueStems.add(stemmer.stem(word).toString());
 			}
 		}
 
@@ -221,14 +347,13 @@ public class FileStemmer {
 	 *   a single line of the input file
 	 * @throws IOException if unable to read or parse file
 	 *
-	 * @see SnowballStemmer
-	 * @see ALGORITHM#ENGLISH
+	 * @see CachingStemmer#ENGLISH
 	 * @see StandardCharsets#UTF_8
 	 * @see #uniqueStems(String, Stemmer)
 	 */
 
 	public static ArrayList<TreeSet<String>> listUniqueStems(Path input) throws IOException {
-		Stemmer stemmer = new SnowballStemmer(ENGLISH);
+		Stemmer stemmer = CachingStemmer.ENGLISH;
 		ArrayList<TreeSet<String>> listUniqueStems = new ArrayList<>();
 
 		try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8)) {
@@ -252,7 +377,6 @@ public class FileStemmer {
 	 * @return the stemmed version of the word
 	 */
 	public static String stem(String word) {
-		Stemmer stemmer = new SnowballStemmer(ENGLISH);
-		return stemmer.stem(word).toString();
+		return CachingStemmer.ENGLISH.stem(word);
 	}
 }
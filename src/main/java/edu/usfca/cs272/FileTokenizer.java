@@ -0,0 +1,305 @@
+package edu.usfca.cs272;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.MalformedInputException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a UTF-8 text file into the same cleaned words as
+ * {@link FileStemmer#parse(String)}, without creating a string for every line.
+ * The file is read into memory, or memory-mapped if it is large, and its bytes
+ * are decoded, cleaned, lowercased and split in a single pass, with each word
+ * written into a reusable buffer.
+ *
+ * <p>
+ * Like {@link FileStemmer#clean(String)}, characters are decomposed so
+ * diacritical marks can be removed, any character that is neither alphabetic
+ * nor whitespace is removed, and words are split on whitespace. Each character
+ * is cleaned on its own by a {@link WordBuffer}, so combining marks are never
+ * reordered. Empty words are never returned.
+ *
+ * <p>
+ * A tokenizer may read just a range of a file. Ranges from
+ * {@link #split(Path, long)} start and end on whitespace, so the words of
+ * consecutive ranges are exactly the words of the whole file.
+ *
+ * @see FileStemmer#clean(String)
+ * @see FileStemmer#split(String)
+ */
+public class FileTokenizer implements Closeable {
+	/** The most bytes of the file mapped into memory at once. */
+	private static final int WINDOW = 1 << 26;
+
+	/**
+	 * The most bytes read into memory rather than mapped. Every mapping counts
+	 * towards the limit on mappings of the process, such as vm.max_map_count on
+	 * Linux, until it is garbage collected, so small files and ranges are read
+	 * instead.
+	 */
+	private static final int READ_SIZE = 1 << 21;
+
+	/** The channel of the file being read. */
+	private final FileChannel channel;
+
+	/** The offset in the file to stop reading at. */
+	private final long end;
+
+	/** The window of the file currently being read, either read or mapped. */
+	private ByteBuffer buffer;
+
+	/** The offset in the file of the current window. */
+	private long offset;
+
+	/** The current word. */
+	private final WordBuffer word;
+
+	/**
+	 * Opens a file for reading words.
+	 *
+	 * @param input the UTF-8 text file to read
+	 * @throws IOException if unable to open, read or map the file
+	 */
+	public FileTokenizer(Path input) throws IOException {
+		this(input, 0, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Opens a range of a file for reading words.
+	 *
+	 * @param input the UTF-8 text file to read
+	 * @param start the offset in the file to start reading at
+	 * @param end the offset in the file to stop reading at
+	 * @throws IOException if unable to open, read or map the file
+	 *
+	 * @see #split(Path, long)
+	 */
+	public FileTokenizer(Path input, long start, long end) throws IOException {
+		this.channel = FileChannel.open(input, StandardOpenOption.READ);
+		this.word = new WordBuffer();
+
+		try {
+			this.end = Math.min(end, channel.size());
+			map(start);
+		}
+		catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Reads or maps the window of the file starting at the given offset. A window
+	 * of at most {@link #READ_SIZE} bytes is read into memory, and only a larger
+	 * one is mapped. A file that shrank since it was opened ends early.
+	 *
+	 * @param start the offset in the file to read or map from
+	 * @return true if any bytes were read or mapped, or false at the end of the
+	 *   file
+	 * @throws IOException if unable to read or map the file
+	 */
+	private boolean map(long start) throws IOException {
+		if (start >= end) {
+			return false;
+		}
+
+		offset = start;
+		long length = Math.min(WINDOW, end - start);
+		if (length > READ_SIZE) {
+			buffer = channel.map(MapMode.READ_ONLY, start, length);
+			return true;
+		}
+
+		if (buffer == null || buffer.isDirect() || buffer.capacity() < length) {
+			buffer = ByteBuffer.allocate((int) length);
+		}
+		buffer.clear().limit((int) length);
+		while (buffer.hasRemaining() && channel.read(buffer, start + buffer.position()) > 0) {
+			// read until the window is full or the file ends
+		}
+		buffer.flip();
+		return buffer.hasRemaining();
+	}
+
+	/**
+	 * Returns the next cleaned word of the file. The returned sequence is reused
+	 * and changed by the next call, so it must be copied to be kept.
+	 *
+	 * <p>
+	 * Reading a mapped window of a file that was truncated after it was mapped
+	 * throws an {@link InternalError} rather than an exception, which is
+	 * rethrown as an {@link IOException} so callers handle it like any other
+	 * file that could not be read.
+	 *
+	 * @return the next word, or null at the end of the file
+	 * @throws IOException if unable to read the file or it is not valid UTF-8
+	 */
+	public CharSequence next() throws IOException {
+		try {
+			return nextWord();
+		}
+		catch (InternalError e) {
+			throw new IOException("File changed while being read", e);
+		}
+	}
+
+	/**
+	 * Returns the next cleaned word of the file.
+	 *
+	 * @return the next word, or null at the end of the file
+	 * @throws IOException if unable to read the file or it is not valid UTF-8
+	 *
+	 * @see #next()
+	 */
+	private CharSequence nextWord() throws IOException {
+		word.clear();
+
+		while (buffer != null && (buffer.hasRemaining() || map(offset + buffer.position()))) {
+			int b = buffer.get();
+
+			if (b >= 0) {
+				if (b >= 'a' && b <= 'z') {
+					word.appendAscii((char) b);
+				}
+				else if (b >= 'A' && b <= 'Z') {
+					word.appendAscii((char) (b + ('a' - 'A')));
+				}
+				else if (WordBuffer.isSpace(b) && !word.isEmpty()) {
+					return word.finish();
+				}
+			}
+			else {
+				int codePoint = decode(b);
+				if (WordBuffer.isSpace(codePoint)) {
+					if (!word.isEmpty()) {
+						return word.finish();
+					}
+				}
+				else {
+					word.fold(codePoint);
+				}
+			}
+		}
+
+		return word.isEmpty() ? null : word.finish();
+	}
+
+	/**
+	 * Decodes a multibyte UTF-8 sequence, reading or mapping the next window of
+	 * the file if the sequence crosses the end of the current one.
+	 *
+	 * @param lead the first byte of the sequence, already read
+	 * @return the decoded code point
+	 * @throws IOException if the sequence is not valid UTF-8
+	 */
+	private int decode(int lead) throws IOException {
+		int count;
+		int codePoint;
+		int min;
+
+		if ((lead & 0xE0) == 0xC0) {
+			count = 1;
+			codePoint = lead & 0x1F;
+			min = 0x80;
+		}
+		else if ((lead & 0xF0) == 0xE0) {
+			count = 2;
+			codePoint = lead & 0x0F;
+			min = 0x800;
+		}
+		else if ((lead & 0xF8) == 0xF0) {
+			count = 3;
+			codePoint = lead & 0x07;
+			min = 0x10000;
+		}
+		else {
+			throw new MalformedInputException(1);
+		}
+
+		if (buffer.remaining() < count) {
+			// read or map again so the whole sequence is within one window
+			long start = offset + buffer.position() - 1;
+			if (start + count + 1 > end) {
+				throw new MalformedInputException(1);
+			}
+			if (!map(start) || buffer.remaining() < count + 1) {
+				// the file shrank since it was opened
+				throw new MalformedInputException(1);
+			}
+			buffer.get();
+		}
+
+		for (int i = 0; i < count; i++) {
+			int next = buffer.get();
+			if ((next & 0xC0) != 0x80) {
+				throw new MalformedInputException(1);
+			}
+			codePoint = (codePoint << 6) | (next & 0x3F);
+		}
+
+		if (codePoint < min || codePoint > Character.MAX_CODE_POINT
+				|| (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)) {
+			throw new MalformedInputException(count + 1);
+		}
+
+		return codePoint;
+	}
+
+	/**
+	 * Splits a file into ranges of about the given size for separate tokenizers.
+	 * Each range after the first starts at an ASCII whitespace byte, which can
+	 * never be part of a word or of a multibyte character. A range is extended
+	 * past its size until such a byte is found, so there may be fewer ranges than
+	 * expected.
+	 *
+	 * @param input the UTF-8 text file to split
+	 * @param size the number of bytes in each range
+	 * @return the offsets where each range starts, followed by the size of the
+	 *   file
+	 * @throws IOException if unable to read the file
+	 */
+	public static List<Long> split(Path input, long size) throws IOException {
+		List<Long> offsets = new ArrayList<>();
+		offsets.add(0L);
+
+		try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ)) {
+			long length = channel.size();
+			ByteBuffer bytes = ByteBuffer.allocate(4096);
+			long position = size;
+
+			search: while (position < length) {
+				bytes.clear();
+				int read = channel.read(bytes, position);
+				for (int i = 0; i < read; i++) {
+					int b = bytes.get(i);
+					if (b >= 0 && WordBuffer.isSpace(b)) {
+						offsets.add(position + i);
+						position = position + i + size;
+						continue search;
+					}
+				}
+				position += Math.max(read, 0);
+			}
+
+			offsets.add(length);
+		}
+
+		return offsets;
+	}
+
+	/**
+	 * Closes the file. Any mapped windows are released once no longer reachable.
+	 *
+	 * @throws IOException if unable to close the file
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -1,5 +1,6 @@
 package edu.usfca.cs272;
 
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.apache.commons.text.StringEscapeUtils;
@@ -31,6 +32,9 @@ import org.apache.commons.text.StringEscapeUtils;
 // [^>]* match all except > 0 or more times
 
 public class HtmlCleaner {
+	/** Matches the value of the lang attribute of the html element. */
+	private static final Pattern LANGUAGE_REGEX = Pattern.compile("(?is)<html\\b[^>]*?\\blang\\s*=\\s*[\"']?([\\w-]+)");
+
 	/**
 	 * Replaces all HTML tags with an empty string. For example, the html
 	 * {@code A<b>B</b>C} will become {@code ABC}.
@@ -163,6 +167,20 @@ public class HtmlCleaner {
 		return html;
 	}
 
+	/**
+	 * Finds the language declared by the lang attribute of the html element. For
+	 * example, {@code <html lang="fr">} declares the language {@code fr}.
+	 *
+	 * @param html valid HTML 4 text
+	 * @return the declared language, or null if none is declared
+	 *
+	 * @see Analyzer#forDocument(String)
+	 */
+	public static String findLanguage(String html) {
+		Matcher matcher = LANGUAGE_REGEX.matcher(html);
+		return matcher.find() ? matcher.group(1) : null;
+	}
+
 	/**
 	 * Demonstrates this class.
 	 *
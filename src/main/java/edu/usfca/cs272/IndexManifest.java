@@ -0,0 +1,407 @@
+package edu.usfca.cs272;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * Records the size, modification time and content hash of every text file in
+ * an index, so a later run can find which files were added, changed or removed
+ * and update a saved index instead of rebuilding it. A manifest is saved in the
+ * same directory as the index segment it describes.
+ *
+ * <p>
+ * Files are only hashed when their size or modification time differs from the
+ * previous manifest, so unchanged files are never read. A file whose contents
+ * are the same despite a new modification time is not indexed again.
+ *
+ * <p>
+ * A manifest also records the fingerprint of the analyzer the index was built
+ * with, since the same files stemmed by a different analyzer give different
+ * stems. An index is only updated with the same analyzer, and is built again
+ * from scratch otherwise.
+ *
+ * @see Analyzer#fingerprint()
+ *
+ * @see CompactInvertedIndex#writeSegment(Path)
+ */
+public class IndexManifest {
+	/** The name of the manifest file within a segment directory. */
+	public static final String MANIFEST_FILE = "manifest.bin";
+
+	/** Identifies a manifest file; the bytes spell "MANI". */
+	private static final int MANIFEST_MAGIC = 0x4D414E49;
+
+	/** The version of the manifest format. */
+	private static final int MANIFEST_VERSION = 2;
+
+	/**
+	 * The version of the manifest format without an analyzer fingerprint, which
+	 * is still read but never matches an analyzer.
+	 */
+	private static final int VERSION_WITHOUT_ANALYZER = 1;
+
+	/** The algorithm used to hash file contents. */
+	private static final String HASH_ALGORITHM = "SHA-256";
+
+	/** The most bytes of a file mapped into memory at once while hashing. */
+	private static final int WINDOW = 1 << 26;
+
+	/**
+	 * The recorded state of a single file. The size and modification time are
+	 * compared first to decide whether a file must be hashed again, while the
+	 * size and hash decide whether its contents changed.
+	 *
+	 * @param size the size of the file in bytes
+	 * @param modified the last modification time of the file in milliseconds
+	 *   since the epoch, only used to tell whether the hash can be reused
+	 * @param hash the SHA-256 hash of the file contents in lowercase hexadecimal
+	 */
+	public record Entry(long size, long modified, String hash) {
+	}
+
+	/** The fingerprint of the analyzer the files were indexed with. */
+	private final String analyzer;
+
+	/** The entries of the manifest, keyed by location. */
+	private final TreeMap<String, Entry> entries;
+
+	/**
+	 * Initializes an empty manifest of files indexed with an analyzer.
+	 *
+	 * @param analyzer the analyzer the files are indexed with
+	 */
+	public IndexManifest(Analyzer analyzer) {
+		this(analyzer.fingerprint());
+	}
+
+	/**
+	 * Initializes an empty manifest of files indexed with an analyzer.
+	 *
+	 * @param analyzer the fingerprint of the analyzer the files are indexed with
+	 *
+	 * @see Analyzer#fingerprint()
+	 */
+	private IndexManifest(String analyzer) {
+		this.analyzer = analyzer;
+		this.entries = new TreeMap<>();
+	}
+
+	/**
+	 * Records the text files at a path the same way the builders find them: the
+	 * file itself, or every text file within a directory, following symbolic links
+	 * but not loops. Files that cannot be read are left out.
+	 *
+	 * @param textPath the file or directory to record
+	 * @param previous the previous manifest, whose hashes are reused for files
+	 *   with the same size and modification time
+	 * @param analyzer the analyzer the files are indexed with
+	 * @return the manifest of the files at the path
+	 * @throws IOException if unable to traverse the path
+	 *
+	 * @see InvertedIndexBuilder#build(Path, InvertedIndex)
+	 */
+	public static IndexManifest scan(Path textPath, IndexManifest previous, Analyzer analyzer) throws IOException {
+		IndexManifest manifest = new IndexManifest(analyzer);
+
+		if (!Files.isDirectory(textPath)) {
+			manifest.record(textPath, previous);
+			return manifest;
+		}
+
+		Files.walkFileTree(textPath, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+				new SimpleFileVisitor<>() {
+					@Override
+					public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+						if (InvertedIndexBuilder.isTextFile(file)) {
+							manifest.record(file, previous);
+						}
+						return FileVisitResult.CONTINUE;
+					}
+
+					@Override
+					public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+						if (e instanceof FileSystemLoopException) {
+							return FileVisitResult.CONTINUE;
+						}
+						throw e;
+					}
+				});
+
+		return manifest;
+	}
+
+	/**
+	 * Records the state of a file, reusing the previous hash if its size and
+	 * modification time are unchanged. Files that cannot be read are left out.
+	 *
+	 * @param file the file to record
+	 * @param previous the previous manifest
+	 */
+	private void record(Path file, IndexManifest previous) {
+		String location = file.toString();
+		try {
+			BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+			long size = attributes.size();
+			long modified = attributes.lastModifiedTime().toMillis();
+
+			Entry entry = previous.entries.get(location);
+			if (entry == null || entry.size() != size || entry.modified() != modified) {
+				entry = new Entry(size, modified, hash(file));
+			}
+			entries.put(location, entry);
+		}
+		catch (IOException e) {
+			// leave it to the builders to report
+		}
+	}
+
+	/**
+	 * Hashes the contents of a file.
+	 *
+	 * @param file the file to hash
+	 * @return the hash in hexadecimal
+	 * @throws IOException if unable to read the file
+	 */
+	private static String hash(Path file) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance(HASH_ALGORITHM);
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("Every Java platform supports " + HASH_ALGORITHM, e);
+		}
+
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			for (long start = 0; start < size; start += WINDOW) {
+				MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, start, Math.min(WINDOW, size - start));
+				digest.update(buffer);
+			}
+		}
+
+		return HexFormat.of().formatHex(digest.digest());
+	}
+
+	/**
+	 * Checks whether the files of this manifest were indexed with an analyzer
+	 * that gives the same stems as the given one.
+	 *
+	 * @param other the analyzer to check
+	 * @return true if an index described by this manifest may be updated with the
+	 *   analyzer
+	 */
+	public boolean isFor(Analyzer other) {
+		return analyzer.equals(other.fingerprint());
+	}
+
+	/**
+	 * Leaves a file out of the manifest, such as one that could not be indexed,
+	 * so the next update indexes it again.
+	 *
+	 * @param file the file to leave out
+	 * @return true if the manifest had the file
+	 */
+	public boolean remove(Path file) {
+		return entries.remove(file.toString()) != null;
+	}
+
+	/**
+	 * Returns the locations that must be removed from an index described by this
+	 * manifest to match the current one, because they were removed or changed.
+	 *
+	 * @param current the manifest of the files as they are now
+	 * @return the locations to remove, in sorted order
+	 */
+	public List<String> stale(IndexManifest current) {
+		List<String> stale = new ArrayList<>();
+		for (var entry : entries.entrySet()) {
+			if (!isSameFile(entry.getValue(), current.entries.get(entry.getKey()))) {
+				stale.add(entry.getKey());
+			}
+		}
+		return stale;
+	}
+
+	/**
+	 * Returns the files that must be indexed to update an index described by the
+	 * previous manifest to match this one, because they were added or changed.
+	 *
+	 * @param previous the manifest of the saved index
+	 * @return the files to index, in sorted order by location
+	 */
+	public List<Path> changed(IndexManifest previous) {
+		List<Path> changed = new ArrayList<>();
+		for (var entry : entries.entrySet()) {
+			if (!isSameFile(entry.getValue(), previous.entries.get(entry.getKey()))) {
+				changed.add(Path.of(entry.getKey()));
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Checks if two entries describe the same file contents.
+	 *
+	 * @param entry the entry to check
+	 * @param other the other entry, or null if none
+	 * @return true if the contents of the files are the same
+	 */
+	private static boolean isSameFile(Entry entry, Entry other) {
+		return other != null && entry.size() == other.size() && Objects.equals(entry.hash(), other.hash());
+	}
+
+	/**
+	 * Returns an unmodifiable view of the entries of this manifest.
+	 *
+	 * @return the entries keyed by location, in sorted order
+	 */
+	public Map<String, Entry> viewEntries() {
+		return Collections.unmodifiableMap(entries);
+	}
+
+	/**
+	 * Writes the manifest to a directory. The manifest is written to a temporary
+	 * file first and then moved into place, so it is never left half written.
+	 *
+	 * @param directory the directory to write the manifest to
+	 * @throws IOException if an I/O error occurs writing the manifest
+	 */
+	public void write(Path directory) throws IOException {
+		Files.createDirectories(directory);
+		Path path = directory.resolve(MANIFEST_FILE);
+		Path temporary = directory.resolve(MANIFEST_FILE + ".tmp");
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+			out.writeInt(MANIFEST_MAGIC);
+			out.writeInt(MANIFEST_VERSION);
+			writeString(analyzer, out);
+			out.writeInt(entries.size());
+			for (var entry : entries.entrySet()) {
+				writeString(entry.getKey(), out);
+				out.writeLong(entry.getValue().size());
+				out.writeLong(entry.getValue().modified());
+				writeString(entry.getValue().hash(), out);
+			}
+		}
+
+		Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Checks whether a directory holds both a saved segment and its manifest. A
+	 * segment saved without a manifest cannot be updated, since there is no
+	 * record of which files it holds or which have changed since, so it must be
+	 * built again from scratch instead.
+	 *
+	 * @param directory the directory of the saved segment and manifest
+	 * @return true if the index saved in the directory can be updated
+	 */
+	public static boolean canUpdate(Path directory) {
+		return Files.exists(directory.resolve(CompactInvertedIndex.SEGMENT_FILE))
+				&& Files.exists(directory.resolve(MANIFEST_FILE));
+	}
+
+	/**
+	 * Reads a manifest previously written by {@link #write(Path)}.
+	 *
+	 * @param directory the directory containing the manifest
+	 * @return the manifest, or an empty manifest for no analyzer if the directory
+	 *   has none
+	 * @throws IOException if an I/O error occurs or the file is not a valid
+	 *   manifest
+	 */
+	public static IndexManifest read(Path directory) throws IOException {
+		Path path = directory.resolve(MANIFEST_FILE);
+		if (!Files.exists(path)) {
+			return new IndexManifest("");
+		}
+
+		IndexManifest manifest;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+			if (in.readInt() != MANIFEST_MAGIC) {
+				throw new IOException("Not a supported index manifest: " + path);
+			}
+
+			int version = in.readInt();
+			if (version == MANIFEST_VERSION) {
+				manifest = new IndexManifest(readString(in));
+			}
+			else if (version == VERSION_WITHOUT_ANALYZER) {
+				manifest = new IndexManifest("");
+			}
+			else {
+				throw new IOException("Not a supported index manifest: " + path);
+			}
+
+			int size = in.readInt();
+			for (int i = 0; i < size; i++) {
+				String location = readString(in);
+				manifest.entries.put(location, new Entry(in.readLong(), in.readLong(), readString(in)));
+			}
+		}
+		catch (EOFException | NegativeArraySizeException e) {
+			throw new IOException("Truncated or corrupt index manifest: " + path, e);
+		}
+
+		return manifest;
+	}
+
+	/**
+	 * Writes a string as its length in bytes followed by its UTF-8 bytes.
+	 *
+	 * @param text the string to write
+	 * @param out the stream to write to
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static void writeString(String text, DataOutputStream out) throws IOException {
+		byte[] bytes = text.getBytes(UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Reads a string written by {@link #writeString(String, DataOutputStream)}.
+	 *
+	 * @param in the stream to read from
+	 * @return the string read
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, UTF_8);
+	}
+
+	@Override
+	public String toString() {
+		return analyzer + " " + entries;
+	}
+}
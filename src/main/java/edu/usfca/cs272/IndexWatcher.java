@@ -0,0 +1,319 @@
+package edu.usfca.cs272;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Keeps an index up to date with a directory of text files by watching it for
+ * files being created, modified or deleted. Events are coalesced into batches:
+ * once an event arrives, more are collected until none arrive for a short
+ * delay, and then every path in the batch is updated once. Modified files are
+ * removed from the index and processed again by the work queue, deleted files
+ * and directories are removed, and new directories are watched and indexed.
+ * Paths that were never indexed, such as files that are not text files, are
+ * only processed if they are new text files.
+ *
+ * <p>
+ * A location is missing from the index between being removed and being added
+ * again, so searches during a batch may not find it. If the file system drops
+ * events, every file in the directory is indexed again.
+ */
+public class IndexWatcher implements Runnable {
+	/** The log4j2 logger. */
+	private static final Logger log = LogManager.getLogger();
+
+	/** How long to wait for more events before updating the index by default. */
+	public static final Duration DEFAULT_DELAY = Duration.ofMillis(250);
+
+	/** The longest a batch is collected for, in multiples of the delay. */
+	private static final int MAX_DELAYS = 20;
+
+	/** The directory being watched. */
+	private final Path root;
+
+	/** The index to keep up to date. */
+	private final ConcurrentInvertedIndex index;
+
+	/** The work queue to process files with. */
+	private final WorkQueue queue;
+
+	/** The analyzer to stem files with. */
+	private final Analyzer analyzer;
+
+	/** How long to wait for more events before updating the index. */
+	private final Duration delay;
+
+	/** Called after each batch of updates, such as to search the index again. */
+	private final Runnable listener;
+
+	/** The watch service notified of changes. */
+	private final WatchService watcher;
+
+	/** The directory watched by each watch key. */
+	private final Map<WatchKey, Path> directories;
+
+	/**
+	 * Initializes a watcher of a directory, watching it and every directory within
+	 * it. The index is not updated until {@link #run()} is called.
+	 *
+	 * @param root the directory to watch
+	 * @param index the index to keep up to date
+	 * @param queue the work queue to process files with
+	 * @param analyzer the analyzer to stem files with
+	 * @param delay how long to wait for more events before updating the index
+	 * @param listener called after each batch of updates
+	 * @throws IOException if unable to watch the directory
+	 */
+	public IndexWatcher(Path root, ConcurrentInvertedIndex index, WorkQueue queue, Analyzer analyzer, Duration delay,
+			Runnable listener) throws IOException {
+		this.root = root;
+		this.index = index;
+		this.queue = queue;
+		this.analyzer = analyzer;
+		this.delay = delay;
+		this.listener = listener;
+		this.watcher = root.getFileSystem().newWatchService();
+		this.directories = new HashMap<>();
+
+		try {
+			register(root);
+		}
+		catch (IOException e) {
+			watcher.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Initializes a watcher of a directory with the default delay.
+	 *
+	 * @param root the directory to watch
+	 * @param index the index to keep up to date
+	 * @param queue the work queue to process files with
+	 * @param analyzer the analyzer to stem files with
+	 * @param listener called after each batch of updates
+	 * @throws IOException if unable to watch the directory
+	 *
+	 * @see #DEFAULT_DELAY
+	 */
+	public IndexWatcher(Path root, ConcurrentInvertedIndex index, WorkQueue queue, Analyzer analyzer,
+			Runnable listener) throws IOException {
+		this(root, index, queue, analyzer, DEFAULT_DELAY, listener);
+	}
+
+	/**
+	 * Watches a directory and every directory within it, following symbolic links
+	 * but not loops.
+	 *
+	 * @param directory the directory to watch
+	 * @throws IOException if unable to watch the directory
+	 */
+	private void register(Path directory) throws IOException {
+		Files.walkFileTree(directory, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+				new SimpleFileVisitor<>() {
+					@Override
+					public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+						directories.put(dir.register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), dir);
+						return FileVisitResult.CONTINUE;
+					}
+
+					@Override
+					public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+						if (e instanceof FileSystemLoopException || !file.equals(directory)) {
+							return FileVisitResult.CONTINUE;
+						}
+						throw e;
+					}
+				});
+	}
+
+	/**
+	 * Updates the index with each batch of changes until interrupted or the
+	 * watched directory is deleted.
+	 */
+	@Override
+	public void run() {
+		try (watcher) {
+			while (!directories.isEmpty()) {
+				Batch batch = new Batch();
+				batch.add(watcher.take());
+
+				long deadline = System.nanoTime() + delay.toNanos() * MAX_DELAYS;
+				WatchKey key;
+				while (System.nanoTime() < deadline && (key = watcher.poll(delay.toNanos(), TimeUnit.NANOSECONDS)) != null) {
+					batch.add(key);
+				}
+
+				batch.apply();
+				listener.run();
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		catch (IOException e) {
+			log.catching(Level.WARN, e);
+		}
+	}
+
+	/**
+	 * The paths changed by a group of events, each updated once.
+	 */
+	private class Batch {
+		/** Every path with an event, in sorted order so parents come first. */
+		private final TreeSet<Path> paths = new TreeSet<>();
+
+		/** The paths that were created. */
+		private final Set<Path> created = new HashSet<>();
+
+		/** Whether any events were dropped. */
+		private boolean isOverflowed = false;
+
+		/**
+		 * Initializes an empty batch.
+		 */
+		private Batch() {
+		}
+
+		/**
+		 * Adds the events of a watch key to the batch and resets the key.
+		 *
+		 * @param key the watch key signalled
+		 */
+		private void add(WatchKey key) {
+			Path directory = directories.get(key);
+			for (WatchEvent<?> event : key.pollEvents()) {
+				if (event.kind() == OVERFLOW || directory == null) {
+					isOverflowed = true;
+					continue;
+				}
+
+				Path path = directory.resolve((Path) event.context());
+				paths.add(path);
+				if (event.kind() == ENTRY_CREATE) {
+					created.add(path);
+				}
+			}
+
+			if (!key.reset()) {
+				directories.remove(key);
+			}
+		}
+
+		/**
+		 * Updates the index for every path in the batch.
+		 *
+		 * @throws IOException if unable to watch a new directory
+		 */
+		private void apply() throws IOException {
+			if (isOverflowed) {
+				log.warn("Events were dropped; indexing {} again.", root);
+				paths.clear();
+				paths.add(root);
+				created.add(root);
+			}
+
+			// sorted, so a new directory comes before anything within it
+			List<String> removed = new ArrayList<>();
+			List<Path> cleared = new ArrayList<>();
+			List<Path> added = new ArrayList<>();
+			List<Path> files = new ArrayList<>();
+			for (Path path : paths) {
+				if (added.stream().anyMatch(path::startsWith)) {
+					continue;
+				}
+
+				String location = path.toString();
+				if (Files.isDirectory(path)) {
+					// a directory is only modified when its own attributes change
+					if (created.contains(path)) {
+						cleared.add(path);
+						added.add(path);
+					}
+				}
+				else if (index.hasCount(location)) {
+					// only text files are ever indexed
+					removed.add(location);
+					if (Files.exists(path)) {
+						files.add(path);
+					}
+				}
+				else if (Files.exists(path)) {
+					if (InvertedIndexBuilder.isTextFile(path)) {
+						files.add(path);
+					}
+				}
+				else {
+					// deleted without being indexed itself, so it may have been a directory
+					cleared.add(path);
+				}
+			}
+
+			for (String location : removed) {
+				index.removeLocation(location);
+			}
+			clear(cleared);
+			for (Path directory : added) {
+				register(directory);
+				MultithreadedInvertedIndexBuilder.build(directory, index, queue,
+						MultithreadedInvertedIndexBuilder.Order.DEPTH_FIRST, analyzer);
+			}
+			MultithreadedInvertedIndexBuilder.processFiles(files, index, queue, analyzer);
+			log.debug("Updated {} paths, indexing {} directories and {} files.", paths.size(), added.size(), files.size());
+		}
+
+		/**
+		 * Removes the locations of every file within directories that were deleted
+		 * or replaced. Since the index does not know which directories it has files
+		 * from, this checks every location in the index, so it is only done for
+		 * paths that may have been directories.
+		 *
+		 * @param cleared the directories to remove the files within
+		 */
+		private void clear(List<Path> cleared) {
+			if (cleared.isEmpty()) {
+				return;
+			}
+
+			List<String> prefixes = new ArrayList<>();
+			for (Path path : cleared) {
+				index.removeLocation(path.toString());
+				prefixes.add(path.toString() + path.getFileSystem().getSeparator());
+			}
+
+			for (String location : index.viewCounts().keySet()) {
+				if (prefixes.stream().anyMatch(location::startsWith)) {
+					index.removeLocation(location);
+				}
+			}
+		}
+	}
+}
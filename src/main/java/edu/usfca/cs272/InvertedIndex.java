@@ -2,15 +2,23 @@ package edu.usfca.cs272;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.function.Function;
+import java.util.function.ObjIntConsumer;
 
 /**
  * Includes logic of an inverted index for efficient word searching in text
@@ -26,42 +34,245 @@ public class InvertedIndex {
 	private final TreeMap<String, Integer> wordCounts;
 
 	/**
-	 * A nested map where each word maps to another map, which in turn maps a file
-	 * path to a set of positions where the word occurs.
+	 * The term dictionary, mapping each word to the dense integer id used to look
+	 * up its postings. Kept sorted so partial search can walk prefixes.
 	 */
-	private final TreeMap<String, TreeMap<String, TreeSet<Integer>>> invertedIndex;
+	private final TreeMap<String, Integer> termIds;
+
+	/**
+	 * The word for each term id, or null if the id is free to reuse.
+	 */
+	private final ArrayList<String> terms;
+
+	/**
+	 * The postings for each term id, where each document id maps to the sorted
+	 * positions where the word occurs in that document, or null if the id is free
+	 * to reuse.
+	 */
+	private final ArrayList<TreeMap<Integer, PositionList>> postings;
+
+	/**
+	 * The term ids freed when the last location of their word was removed.
+	 */
+	private final ArrayDeque<Integer> freeTerms;
+
+	/**
+	 * The document dictionary, mapping each file path to its dense integer id.
+	 */
+	private final HashMap<String, Integer> documentIds;
+
+	/**
+	 * The file path for each document id, or null if the document was removed.
+	 */
+	private final ArrayList<String> documents;
+
+	/**
+	 * The forward index, holding the term ids of the words found in each document
+	 * id, so removing a document only visits its own words.
+	 */
+	private final ArrayList<ArrayList<Integer>> documentTerms;
+
+	/**
+	 * The document ids freed when their location was removed.
+	 */
+	private final ArrayDeque<Integer> freeDocuments;
 
 	/**
 	 * Initializes a new inverted index with empty structures.
 	 */
 
 	public InvertedIndex() {
-		this.wordCounts = new TreeMap<>();
-		this.invertedIndex = new TreeMap<>();
+		this(true);
 	}
-// CITE: Tutoring Center
-	public void merge(InvertedIndex other) {
-		for (var entry : other.invertedIndex.entrySet()) {
-			var thisLocations = this.invertedIndex.get(entry.getKey());
-			if (thisLocations == null) {
-				this.invertedIndex.put(entry.getKey(), entry.getValue());
-			} else {
-				for (var locationEntry : entry.getValue().entrySet()) {
-					var thisIndex = thisLocations.get(locationEntry.getKey());
-					if (thisIndex == null) {
-						thisLocations.put(locationEntry.getKey(), locationEntry.getValue());
-					} else {
-						thisIndex.addAll(locationEntry.getValue());
-					}
-				}
+
+	/**
+	 * Initializes an inverted index, optionally without any structures of its
+	 * own. Only a subclass that stores its words and locations differently, and
+	 * overrides every method that would use these structures, may skip them.
+	 *
+	 * @param hasStructures whether to create the structures of this index
+	 *
+	 * @see CompactInvertedIndex
+	 * @see ThreadSafeInvertedIndex
+	 */
+	protected InvertedIndex(boolean hasStructures) {
+		this.wordCounts = hasStructures ? new TreeMap<>() : null;
+		this.termIds = hasStructures ? new TreeMap<>() : null;
+		this.terms = hasStructures ? new ArrayList<>() : null;
+		this.postings = hasStructures ? new ArrayList<>() : null;
+		this.freeTerms = hasStructures ? new ArrayDeque<>() : null;
+		this.documentIds = hasStructures ? new HashMap<>() : null;
+		this.documents = hasStructures ? new ArrayList<>() : null;
+		this.documentTerms = hasStructures ? new ArrayList<>() : null;
+		this.freeDocuments = hasStructures ? new ArrayDeque<>() : null;
+	}
+
+	/**
+	 * Returns the id for a word, adding it to the term dictionary if it is not
+	 * already present. New words reuse a freed id if there is one.
+	 *
+	 * @param word the word to look up
+	 * @return the term id of the word
+	 */
+	private int termId(String word) {
+		Integer id = termIds.get(word);
+		if (id == null) {
+			id = freeTerms.poll();
+			if (id == null) {
+				id = postings.size();
+				terms.add(word);
+				postings.add(new TreeMap<>());
+			}
+			else {
+				terms.set(id, word);
+				postings.set(id, new TreeMap<>());
+			}
+			termIds.put(word, id);
+		}
+		return id;
+	}
+
+	/**
+	 * Returns the id for a location, adding it to the document dictionary if it is
+	 * not already present. New locations reuse a freed id if there is one.
+	 *
+	 * @param location the file path to look up
+	 * @return the document id of the location
+	 */
+	private int documentId(String location) {
+		Integer id = documentIds.get(location);
+		if (id == null) {
+			id = freeDocuments.poll();
+			if (id == null) {
+				id = documents.size();
+				documents.add(location);
+				documentTerms.add(new ArrayList<>());
+			}
+			else {
+				documents.set(id, location);
+				documentTerms.set(id, new ArrayList<>());
 			}
+			documentIds.put(location, id);
 		}
-		for (var entry : other.wordCounts.entrySet()) {
+		return id;
+	}
+
+	/**
+	 * Returns the postings for a word, or null if the word is not in the index.
+	 *
+	 * @param word the word to look up
+	 * @return the map of document ids to positions, or null
+	 */
+	private TreeMap<Integer, PositionList> postings(String word) {
+		Integer id = termIds.get(word);
+		return id == null ? null : postings.get(id);
+	}
+
+	/**
+	 * Returns the locations and positions of a word with document ids translated
+	 * back into file paths. The position lists are shared with the index and must
+	 * not be modified.
+	 *
+	 * @param word the word to look up
+	 * @return a map of file paths to positions, sorted by path, or an empty map
+	 */
+	TreeMap<String, PositionList> postingsOf(String word) {
+		TreeMap<String, PositionList> translated = new TreeMap<>();
+		var docs = postings(word);
+		if (docs != null) {
+			for (var entry : docs.entrySet()) {
+				translated.put(documents.get(entry.getKey()), entry.getValue());
+			}
+		}
+		return translated;
+	}
+
+	// CITE: Tutoring Center
+	/**
+	 * Merges the words, locations, positions, and counts of another index into
+	 * this one.
+	 *
+	 * @param other the index to merge into this one
+	 */
+	public void merge(InvertedIndex other) {
+		mergePostings(other, other.viewWords());
+		for (var entry : other.viewCounts().entrySet()) {
 			this.wordCounts.merge(entry.getKey(), entry.getValue(),
 					(current, newer) -> (newer > current) ? newer : current);
 		}
 	}
 
+	/**
+	 * Merges the locations and positions of the given words from another index
+	 * into this one, counting each position added towards the word count of its
+	 * location.
+	 *
+	 * @param other the index to merge from
+	 * @param words the words to merge
+	 * @return the number of positions added for each location
+	 */
+	Map<String, Integer> mergePostings(InvertedIndex other, Iterable<String> words) {
+		Map<String, Integer> merged = new HashMap<>();
+		for (String word : words) {
+			int termId = termId(word);
+			var thisLocations = postings.get(termId);
+			for (var locationEntry : other.postingsOf(word).entrySet()) {
+				String location = locationEntry.getKey();
+				int docId = documentId(location);
+				var thisIndex = thisLocations.get(docId);
+				int added;
+				if (thisIndex == null) {
+					thisLocations.put(docId, locationEntry.getValue());
+					documentTerms.get(docId).add(termId);
+					added = locationEntry.getValue().size();
+				}
+				else {
+					int before = thisIndex.size();
+					thisIndex.addAll(locationEntry.getValue());
+					added = thisIndex.size() - before;
+				}
+				if (added > 0) {
+					wordCounts.merge(location, added, Integer::sum);
+					merged.merge(location, added, Integer::sum);
+				}
+			}
+		}
+		return merged;
+	}
+
+	/**
+	 * Returns a compact, read-only copy of this index with its postings
+	 * compressed into a single contiguous buffer. Useful once building is
+	 * complete and the index will only be searched or written from then on.
+	 *
+	 * @return a frozen copy of this index
+	 *
+	 * @see CompactInvertedIndex
+	 */
+	public CompactInvertedIndex freeze() {
+		// renumber documents in path order so compressed postings are sorted by path;
+		// a document may have postings without a count when only postings were added
+		TreeSet<String> known = new TreeSet<>(wordCounts.keySet());
+		known.addAll(documentIds.keySet());
+		String[] paths = known.toArray(String[]::new);
+		int[] counts = new int[paths.length];
+		for (int i = 0; i < paths.length; i++) {
+			counts[i] = wordCounts.getOrDefault(paths[i], 0);
+		}
+		int[] remapped = new int[documents.size()];
+		for (int i = 0; i < remapped.length; i++) {
+			remapped[i] = documents.get(i) == null ? -1 : Arrays.binarySearch(paths, documents.get(i));
+		}
+
+		return CompactInvertedIndex.encode(termIds.keySet().toArray(String[]::new), paths, counts, word -> {
+			TreeMap<Integer, PositionList> sorted = new TreeMap<>();
+			for (var entry : postings(word).entrySet()) {
+				sorted.put(remapped[entry.getKey()], entry.getValue());
+			}
+			return sorted;
+		});
+	}
+
 	/**
 	 * Writes the inverted index to a file in JSON format.
 	 *
@@ -70,7 +281,7 @@ public class InvertedIndex {
 	 */
 	public void writeIndex(Path path) throws IOException {
 		if (path != null) {
-			JsonWriter.writeNestedMap(this.invertedIndex, path);
+			JsonWriter.writeNestedMap(new IndexView(termIds.keySet(), this::postingsOf), path);
 		}
 	}
 
@@ -103,6 +314,35 @@ public class InvertedIndex {
 		return (isPartial) ? partialSearch(queryWords) : exactSearch(queryWords);
 	}
 
+	/**
+	 * Performs a search on the inverted index and returns only the best results,
+	 * in the same order as {@link #search(Set, boolean)}. Instead of sorting every
+	 * matching location, the best results seen so far are kept in a heap of at
+	 * most {@code k} results, so a broad query takes O(n log k) rather than
+	 * O(n log n) time to rank.
+	 *
+	 * @param queryWords A set of words to be searched within the index.
+	 * @param isPartial If true, the method performs a partial search, where search
+	 *   terms need only start with the query words. If false, the method performs
+	 *   an exact search, where search terms must exactly match the query words.
+	 * @param k the most results to return
+	 * @return the best {@code k} search results, or every result if there are
+	 *   fewer, sorted by relevance score, then number of occurrences, and finally
+	 *   by file path lexicographically.
+	 * @throws IllegalArgumentException if {@code k} is less than 1
+	 *
+	 * @see Ranking
+	 */
+	public List<SearchResult> search(Set<String> queryWords, boolean isPartial, int k) {
+		if (k < 1) {
+			throw new IllegalArgumentException("Number of results must be at least 1");
+		}
+
+		Ranking ranking = new Ranking(k);
+		matches(queryWords, isPartial, ranking);
+		return ranking.results();
+	}
+
 	/**
 	 * Performs an exact search on the inverted index using the given query words.
 	 * It searches for exact matches of the query words within the indexed
@@ -116,15 +356,9 @@ public class InvertedIndex {
 	 *   occurrences, and finally by file path lexicographically.
 	 */
 	public List<SearchResult> exactSearch(Set<String> queryWords) {
-		Map<String, SearchResult> lookup = new HashMap<>();
-		List<SearchResult> results = new ArrayList<>();
-		for (String word : queryWords) {
-			if (invertedIndex.containsKey(word)) {
-				updateSearchResults(lookup, results, invertedIndex.get(word));
-			}
-		}
-		Collections.sort(results);
-		return results;
+		Ranking ranking = new Ranking(Integer.MAX_VALUE);
+		matches(queryWords, false, ranking);
+		return ranking.results();
 	}
 
 	/**
@@ -139,45 +373,82 @@ public class InvertedIndex {
 	 *   occurrences, and finally by file path lexicographically.
 	 */
 	public List<SearchResult> partialSearch(Set<String> queryWords) {
-		Map<String, SearchResult> lookup = new HashMap<>();
-		List<SearchResult> results = new ArrayList<>();
+		Ranking ranking = new Ranking(Integer.MAX_VALUE);
+		matches(queryWords, true, ranking);
+		return ranking.results();
+	}
 
+	/**
+	 * Finds every location matching the query words and offers it to a ranking
+	 * once its count is the total number of positions of every matching word.
+	 * The counts are kept by document id in a table sized by the postings
+	 * matched, so no search result is created until the ranking keeps one.
+	 *
+	 * @param queryWords the words to search for
+	 * @param isPartial if true, matches every word starting with a query word
+	 * @param ranking the ranking to offer each matching location to
+	 *
+	 * @see MatchCounts
+	 */
+	void matches(Set<String> queryWords, boolean isPartial, Ranking ranking) {
+		MatchCounts matches = new MatchCounts();
 		for (String queryWord : queryWords) {
-			Map.Entry<String, TreeMap<String, TreeSet<Integer>>> entry = invertedIndex.ceilingEntry(queryWord);
-			while (entry != null && entry.getKey().startsWith(queryWord)) {
-				updateSearchResults(lookup, results, entry.getValue());
-				entry = invertedIndex.higherEntry(entry.getKey());
+			if (!isPartial) {
+				Integer id = termIds.get(queryWord);
+				if (id != null) {
+					countMatches(matches, postings.get(id));
+				}
+				continue;
 			}
+
+			for (var entry : termIds.tailMap(queryWord).entrySet()) {
+				if (!entry.getKey().startsWith(queryWord)) {
+					break;
+				}
+				countMatches(matches, postings.get(entry.getValue()));
+			}
+		}
+
+		for (int i = 0; i < matches.size(); i++) {
+			String location = documents.get(matches.id(i));
+			ranking.offer(location, matches.count(i), getWordCount(location));
+		}
+	}
+
+	/**
+	 * Adds the number of positions of a word in each of its documents to the
+	 * counts of a search.
+	 *
+	 * @param matches the counts of the search
+	 * @param files The map of document ids to positions for a specific word.
+	 */
+	private static void countMatches(MatchCounts matches, TreeMap<Integer, PositionList> files) {
+		matches.expect(files.size());
+		for (Map.Entry<Integer, PositionList> entry : files.entrySet()) {
+			matches.add(entry.getKey(), entry.getValue().size());
 		}
-		Collections.sort(results);
-		return results;
-	}
-
-	/**
-	 * Updates the search results map with new or existing search results based on
-	 * the provided file path and positions. This method checks if a search result
-	 * for a given file path already exists in the lookup map. If it exists, it
-	 * updates the occurrence count; if not, it creates a new SearchResult and adds
-	 * it to the map and the results list.
-	 *
-	 * @param lookup The map used for looking up and storing {@link SearchResult}
-	 *   instances by file path.
-	 * @param results The list of search results that might be updated with new
-	 *   SearchResult instances.
-	 * @param files The map of files to positions for a specific word.
-	 */
-	protected void updateSearchResults(Map<String, SearchResult> lookup, List<SearchResult> results,
-			TreeMap<String, TreeSet<Integer>> files) {
-		for (Map.Entry<String, TreeSet<Integer>> entry : files.entrySet()) {
-			String path = entry.getKey();
-			TreeSet<Integer> positions = entry.getValue();
-			SearchResult result = lookup.get(path);
-			if (result == null) {
-				result = new SearchResult(path);
-				lookup.put(path, result);
-				results.add(result);
+	}
+
+	/**
+	 * Passes each location matching a query word to the given action, along with
+	 * the number of positions of that word in the location. A location is passed
+	 * once per matching word.
+	 *
+	 * @param queryWords the words to search for
+	 * @param isPartial if true, matches every word starting with a query word
+	 * @param action the action to perform on each location and count
+	 */
+	void forEachMatch(Collection<String> queryWords, boolean isPartial, ObjIntConsumer<String> action) {
+		for (String queryWord : queryWords) {
+			var matches = isPartial ? termIds.tailMap(queryWord) : termIds.subMap(queryWord, true, queryWord, true);
+			for (var entry : matches.entrySet()) {
+				if (!entry.getKey().startsWith(queryWord)) {
+					break;
+				}
+				for (var docs : postings.get(entry.getValue()).entrySet()) {
+					action.accept(documents.get(docs.getKey()), docs.getValue().size());
+				}
 			}
-			result.updateCount(positions.size());
 		}
 	}
 
@@ -188,7 +459,7 @@ public class InvertedIndex {
 	 * @return true if the word is present, false otherwise
 	 */
 	public boolean hasWord(String word) {
-		return viewWords().contains(word);
+		return termIds.containsKey(word);
 	}
 
 	/**
@@ -199,7 +470,9 @@ public class InvertedIndex {
 	 * @return true if the word is present in the specified location
 	 */
 	public boolean hasLocation(String word, String location) {
-		return viewLocations(word).contains(location);
+		var docs = postings(word);
+		Integer docId = documentIds.get(location);
+		return docs != null && docId != null && docs.containsKey(docId);
 	}
 
 	/**
@@ -235,12 +508,33 @@ public class InvertedIndex {
 	 * @param position the position of the word in the file
 	 */
 	public void addWord(String word, String location, int position) {
-		Map<String, TreeSet<Integer>> locationMap = invertedIndex.computeIfAbsent(word, k -> new TreeMap<>());
-		Set<Integer> positionsSet = locationMap.computeIfAbsent(location, k -> new TreeSet<>());
-		boolean isAdded = positionsSet.add(position);
+		addPosition(word, location, position);
+	}
+
+	/**
+	 * Adds a position for a word and location, counting it towards the word count
+	 * of the location if it is new.
+	 *
+	 * @param word the word to add
+	 * @param location the file path where the word was found
+	 * @param position the position of the word in the file
+	 * @return true if the position was not already in the index
+	 */
+	boolean addPosition(String word, String location, int position) {
+		int termId = termId(word);
+		int docId = documentId(location);
+		var locationMap = postings.get(termId);
+		PositionList positionsList = locationMap.get(docId);
+		if (positionsList == null) {
+			positionsList = new PositionList();
+			locationMap.put(docId, positionsList);
+			documentTerms.get(docId).add(termId);
+		}
+		boolean isAdded = positionsList.add(position);
 		if (isAdded) {
-			wordCounts.put(location, wordCounts.getOrDefault(location, 0) + 1);
+			wordCounts.merge(location, 1, Integer::sum);
 		}
+		return isAdded;
 	}
 
 	/**
@@ -259,6 +553,100 @@ public class InvertedIndex {
 		}
 	}
 
+	/**
+	 * Adds a whole document from its stems in order, starting at position 1. The
+	 * stems are grouped by word before being added, so each word of the document
+	 * is looked up in the index once however many times it appears.
+	 *
+	 * @param location the file path or URL of the document
+	 * @param stems the stems of the document in order
+	 */
+	public void addDocument(String location, Iterator<String> stems) {
+		addPostings(location, group(stems, 1).entrySet());
+	}
+
+	/**
+	 * Groups stems by word along with the positions each is found at.
+	 *
+	 * @param stems the stems in order
+	 * @param startPosition the position of the first stem
+	 * @return the positions of each stem, sorted by stem
+	 */
+	static TreeMap<String, PositionList> group(Iterator<String> stems, int startPosition) {
+		TreeMap<String, PositionList> terms = new TreeMap<>();
+		for (int position = startPosition; stems.hasNext(); position++) {
+			terms.computeIfAbsent(stems.next(), word -> new PositionList()).add(position);
+		}
+		return terms;
+	}
+
+	/**
+	 * Adds the positions of grouped words for a location, counting each new
+	 * position towards its word count. The position lists are kept by the index,
+	 * so they must not be modified afterwards.
+	 *
+	 * @param location the file path where the words are found
+	 * @param terms the positions of each word, in sorted order by word
+	 * @return the number of positions that were not already in the index
+	 *
+	 * @see #group(Iterator, int)
+	 */
+	int addPostings(String location, Collection<Map.Entry<String, PositionList>> terms) {
+		int docId = documentId(location);
+		int added = 0;
+		for (var entry : terms) {
+			int termId = termId(entry.getKey());
+			PositionList existing = postings.get(termId).putIfAbsent(docId, entry.getValue());
+			if (existing == null) {
+				documentTerms.get(docId).add(termId);
+				added += entry.getValue().size();
+			}
+			else {
+				int before = existing.size();
+				existing.addAll(entry.getValue());
+				added += existing.size() - before;
+			}
+		}
+		if (added > 0) {
+			wordCounts.merge(location, added, Integer::sum);
+		}
+		return added;
+	}
+
+	/**
+	 * Removes a location and all of its positions and its word count from the
+	 * index. Words found only in that location are removed as well. Replacing a
+	 * location is done by removing it and adding its words again. Only the words
+	 * of the location are visited, and the ids it frees are reused by the next
+	 * words and locations added.
+	 *
+	 * @param location the file path to remove
+	 * @return true if the index had any positions or a count for the location
+	 */
+	public boolean removeLocation(String location) {
+		boolean isRemoved = wordCounts.remove(location) != null;
+
+		Integer docId = documentIds.remove(location);
+		if (docId != null) {
+			for (int termId : documentTerms.get(docId)) {
+				var docs = postings.get(termId);
+				docs.remove(docId);
+				if (docs.isEmpty()) {
+					termIds.remove(terms.get(termId));
+					terms.set(termId, null);
+					postings.set(termId, null);
+					freeTerms.add(termId);
+				}
+			}
+			documents.set(docId, null);
+			documentTerms.set(docId, null);
+			freeDocuments.add(docId);
+			isRemoved = true;
+		}
+
+		return isRemoved;
+	}
+
 	/**
 	 * Counts the total number of positions a word appears in the index across all
 	 * files.
@@ -278,7 +666,7 @@ public class InvertedIndex {
 	 */
 
 	public int numWords() {
-		return viewWords().size();
+		return termIds.size();
 	}
 
 	/**
@@ -288,7 +676,8 @@ public class InvertedIndex {
 	 * @return Number of locations where the word is found.
 	 */
 	public int numLocations(String word) {
-		return viewLocations(word).size();
+		var docs = postings(word);
+		return docs == null ? 0 : docs.size();
 	}
 
 	/**
@@ -308,7 +697,7 @@ public class InvertedIndex {
 	 */
 
 	public Set<String> viewWords() {
-		return Collections.unmodifiableSet(invertedIndex.keySet());
+		return Collections.unmodifiableSet(termIds.keySet());
 	}
 
 	/**
@@ -321,9 +710,13 @@ public class InvertedIndex {
 	 */
 
 	public Set<String> viewLocations(String word) {
-		TreeMap<String, TreeSet<Integer>> locations = invertedIndex.get(word);
-		if (locations != null) {
-			return Collections.unmodifiableSet(locations.keySet());
+		var docs = postings(word);
+		if (docs != null) {
+			TreeSet<String> locations = new TreeSet<>();
+			for (int docId : docs.keySet()) {
+				locations.add(documents.get(docId));
+			}
+			return Collections.unmodifiableSet(locations);
 		}
 		return Collections.emptySet();
 	}
@@ -337,9 +730,10 @@ public class InvertedIndex {
 	 *   specified file.
 	 */
 	public Set<Integer> viewPositions(String word, String location) {
-		TreeMap<String, TreeSet<Integer>> locations = invertedIndex.get(word);
-		if (locations != null) {
-			TreeSet<Integer> positions = locations.get(location);
+		var docs = postings(word);
+		Integer docId = documentIds.get(location);
+		if (docs != null && docId != null) {
+			PositionList positions = docs.get(docId);
 			if (positions != null) {
 				return Collections.unmodifiableSet(positions);
 			}
@@ -370,14 +764,166 @@ public class InvertedIndex {
 	@Override
 	public String toString() {
 		StringBuilder builder = new StringBuilder();
-		for (Entry<String, TreeMap<String, TreeSet<Integer>>> entry : invertedIndex.entrySet()) {
-			builder.append(entry.getKey()).append(": ");
-			builder.append(entry.getValue().toString());
+		for (String word : termIds.keySet()) {
+			builder.append(word).append(": ");
+			builder.append(postingsOf(word).toString());
 			builder.append(System.lineSeparator());
 		}
 		return builder.toString();
 	}
 
+	/**
+	 * A read-only view of an index that translates the locations of each word into
+	 * file paths one word at a time, so the index can be written without building
+	 * a full copy keyed by strings.
+	 */
+	static class IndexView extends AbstractMap<String, Map<String, PositionList>> {
+		/** The words in the view, in sorted order. */
+		private final Collection<String> words;
+
+		/** Translates a word into its map of file paths to positions. */
+		private final Function<String, ? extends Map<String, PositionList>> locations;
+
+		/**
+		 * Initializes a view over the given words.
+		 *
+		 * @param words the words in the view, in sorted order
+		 * @param locations translates a word into its map of file paths to positions
+		 */
+		IndexView(Collection<String> words, Function<String, ? extends Map<String, PositionList>> locations) {
+			this.words = words;
+			this.locations = locations;
+		}
+
+		@Override
+		public Set<Entry<String, Map<String, PositionList>>> entrySet() {
+			return new AbstractSet<>() {
+				@Override
+				public Iterator<Entry<String, Map<String, PositionList>>> iterator() {
+					var iterator = words.iterator();
+					return new Iterator<>() {
+						@Override
+						public boolean hasNext() {
+							return iterator.hasNext();
+						}
+
+						@Override
+						public Entry<String, Map<String, PositionList>> next() {
+							String word = iterator.next();
+							return new SimpleImmutableEntry<>(word, locations.apply(word));
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return words.size();
+				}
+			};
+		}
+	}
+
+	/**
+	 * Collects the locations matching a search into sorted search results,
+	 * keeping either every result or only the best {@code k}. The best results are
+	 * kept in a heap whose root is the worst of the results kept. Once it is full,
+	 * a location that does not rank before the root cannot be among the best, so
+	 * it is dismissed by comparing its score, count and path against the root
+	 * before any search result is created for it.
+	 */
+	class Ranking {
+		/** The most results to keep. */
+		private final int k;
+
+		/** Every result, if there is no limit on the number of results. */
+		private final List<SearchResult> all;
+
+		/** The best results so far, if there is a limit on the number of results. */
+		private final PriorityQueue<SearchResult> best;
+
+		/**
+		 * Initializes an empty ranking.
+		 *
+		 * @param k the most results to keep, or {@link Integer#MAX_VALUE} to keep
+		 *   every result
+		 */
+		Ranking(int k) {
+			this.k = k;
+			boolean isLimited = k != Integer.MAX_VALUE;
+			this.all = isLimited ? null : new ArrayList<>();
+			this.best = isLimited ? new PriorityQueue<>(Math.min(k, 64), Collections.reverseOrder()) : null;
+		}
+
+		/**
+		 * Offers a matching location to the ranking, only creating a search result
+		 * for it if it is kept.
+		 *
+		 * @param where the file path of the location
+		 * @param count the number of matching positions in the location
+		 * @param total the total number of words in the location
+		 */
+		void offer(String where, int count, int total) {
+			if (best != null && best.size() == k) {
+				SearchResult worst = best.peek();
+				if (compare(where, count, (double) count / total, worst) >= 0) {
+					return;
+				}
+				best.poll();
+			}
+
+			SearchResult result = new SearchResult(where, total);
+			result.updateCount(count);
+			if (best == null) {
+				all.add(result);
+			}
+			else {
+				best.add(result);
+			}
+		}
+
+		/**
+		 * Returns the results kept, sorted by relevance score, then number of
+		 * occurrences, and finally by file path lexicographically.
+		 *
+		 * @return the sorted results
+		 */
+		List<SearchResult> results() {
+			if (best == null) {
+				Collections.sort(all);
+				return all;
+			}
+
+			SearchResult[] sorted = new SearchResult[best.size()];
+			for (int i = sorted.length - 1; i >= 0; i--) {
+				sorted[i] = best.poll();
+			}
+			return new ArrayList<>(Arrays.asList(sorted));
+		}
+
+		/**
+		 * Compares a location to a search result in the same order as
+		 * {@link SearchResult#compareTo(SearchResult)}, without creating a search
+		 * result for the location.
+		 *
+		 * @param where the file path of the location
+		 * @param count the number of matching positions in the location
+		 * @param score the score of the location
+		 * @param other the search result to compare to
+		 * @return a negative number if the location ranks before the result
+		 */
+		private static int compare(String where, int count, double score, SearchResult other) {
+			int scores = Double.compare(other.score, score);
+			if (scores != 0) {
+				return scores;
+			}
+			int counts = Integer.compare(other.count, count);
+			if (counts != 0) {
+				return counts;
+			}
+			return where.compareToIgnoreCase(other.where);
+		}
+	}
+
 	/**
 	 * Represents a search result, encapsulating the file path where the search term
 	 * was found, the number of occurrences of the search term, and the score based
@@ -397,6 +943,11 @@ public class InvertedIndex {
 		 * number of words in the document.
 		 */
 		private double score;
+		/**
+		 * The total number of words in the document, looked up once so updates do not
+		 * repeat the string lookup.
+		 */
+		private final int total;
 
 		/**
 		 * Constructs a SearchResult object for a given file path.
@@ -404,9 +955,21 @@ public class InvertedIndex {
 		 * @param where the file path of the search result
 		 */
 		public SearchResult(String where) {
+			this(where, getWordCount(where));
+		}
+
+		/**
+		 * Constructs a SearchResult object for a given file path with a known total
+		 * number of words.
+		 *
+		 * @param where the file path of the search result
+		 * @param total the total number of words in the document
+		 */
+		SearchResult(String where, int total) {
 			this.where = where;
 			this.count = 0;
 			this.score = 0.0;
+			this.total = total;
 		}
 
 		/**
@@ -414,9 +977,9 @@ public class InvertedIndex {
 		 *
 		 * @param additionalCount the additional number of occurrences to add
 		 */
-		private void updateCount(int additionalCount) {
+		void updateCount(int additionalCount) {
 			this.count += additionalCount;
-			this.score = (double) this.count / wordCounts.get(where);
+			this.score = (double) this.count / total;
 		}
 
 		/**
@@ -1,16 +1,12 @@
 package edu.usfca.cs272;
 
-import static opennlp.tools.stemmer.snowball.SnowballStemmer.ALGORITHM.ENGLISH;
-
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-
-import opennlp.tools.stemmer.Stemmer;
-import opennlp.tools.stemmer.snowball.SnowballStemmer;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * Builds an inverted index from text files. This class contains methods to
@@ -30,12 +26,65 @@ public class InvertedIndexBuilder {
 	 */
 
 	public static void build(Path textPath, InvertedIndex invertedIndex) throws IOException {
+		build(textPath, invertedIndex, Analyzer.ENGLISH);
+	}
+
+	/**
+	 * Builds an inverted index from a given path, stemming with an analyzer.
+	 *
+	 * @param textPath the path to the file or directory
+	 * @param invertedIndex the inverted index to build
+	 * @param analyzer the analyzer to stem files with
+	 * @throws IOException if an I/O error occurs (reading from the file or
+	 *   directory)
+	 */
+	public static void build(Path textPath, InvertedIndex invertedIndex, Analyzer analyzer) throws IOException {
 		if (Files.isDirectory(textPath)) {
-			traverseDirectory(textPath, invertedIndex);
+			traverseDirectory(textPath, invertedIndex, analyzer);
 		}
 		else {
-			processFile(textPath, invertedIndex);
+			processFile(textPath, invertedIndex, analyzer);
+		}
+	}
+
+	/**
+	 * Updates an index saved in a directory to match the files at a path, instead
+	 * of building it from scratch. The saved segment is added to the index, the
+	 * locations of files that were removed or changed since the manifest in the
+	 * directory was written are removed, and the files that were added or changed
+	 * are processed. If the directory has no saved segment, a segment without a
+	 * manifest, or a segment built with a different analyzer, the saved segment
+	 * is ignored and every file is processed.
+	 *
+	 * @param textPath the path to the file or directory
+	 * @param invertedIndex the inverted index to build
+	 * @param directory the directory of the saved segment and manifest
+	 * @param analyzer the analyzer to stem files with
+	 * @return the manifest of the files now in the index, to save with it
+	 * @throws IOException if an I/O error occurs reading the saved index or the
+	 *   files
+	 *
+	 * @see IndexManifest
+	 */
+	public static IndexManifest update(Path textPath, InvertedIndex invertedIndex, Path directory,
+			Analyzer analyzer) throws IOException {
+		IndexManifest previous = new IndexManifest(analyzer);
+		if (IndexManifest.canUpdate(directory)) {
+			IndexManifest saved = IndexManifest.read(directory);
+			if (saved.isFor(analyzer)) {
+				previous = saved;
+				invertedIndex.merge(CompactInvertedIndex.open(directory));
+			}
+		}
+
+		IndexManifest current = IndexManifest.scan(textPath, previous, analyzer);
+		for (String location : previous.stale(current)) {
+			invertedIndex.removeLocation(location);
 		}
+		for (Path file : current.changed(previous)) {
+			processFile(file, invertedIndex, analyzer);
+		}
+		return current;
 	}
 
 	/**
@@ -46,20 +95,28 @@ public class InvertedIndexBuilder {
 	 * @throws IOException if an I/O error occurs reading from the file
 	 */
 	public static void processFile(Path file, InvertedIndex invertedIndex) throws IOException {
-		try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
-			String line;
+		processFile(file, invertedIndex, Analyzer.ENGLISH);
+	}
+
+	/**
+	 * Processes a single file with an analyzer and adds its stems to the provided
+	 * inverted index. Stop words are left out and take no position.
+	 *
+	 * @param file the file to process
+	 * @param invertedIndex the inverted index to add content to
+	 * @param analyzer the analyzer to stem the file with
+	 * @throws IOException if an I/O error occurs reading from the file
+	 */
+	public static void processFile(Path file, InvertedIndex invertedIndex, Analyzer analyzer) throws IOException {
+		try (FileTokenizer tokenizer = new FileTokenizer(file)) {
+			CharSequence word;
 			int position = 0;
-			Stemmer stemmer = new SnowballStemmer(ENGLISH);
 			String pathOfFile = file.toString();
 
-			while ((line = reader.readLine()) != null) {
-				String[] words = FileStemmer.parse(line);
-
-				for (String word : words) {
-					if (!word.isEmpty()) {
-						String stem = stemmer.stem(word).toString();
-						invertedIndex.addWord(stem, pathOfFile, ++position);
-					}
+			while ((word = tokenizer.next()) != null) {
+				String stem = analyzer.stem(word);
+				if (stem != null) {
+					invertedIndex.addWord(stem, pathOfFile, ++position);
 				}
 			}
 		}
@@ -75,18 +132,73 @@ public class InvertedIndexBuilder {
 	 */
 
 	public static void traverseDirectory(Path directory, InvertedIndex index) throws IOException {
+		traverseDirectory(directory, index, Analyzer.ENGLISH);
+	}
+
+	/**
+	 * Traverses a directory and processes all text files found within it with an
+	 * analyzer.
+	 *
+	 * @param directory the directory to traverse
+	 * @param index the inverted index to add content to
+	 * @param analyzer the analyzer to stem files with
+	 * @throws IOException if an I/O error occurs reading from the directory
+	 */
+	public static void traverseDirectory(Path directory, InvertedIndex index, Analyzer analyzer) throws IOException {
+		Set<Object> parents = new HashSet<>();
+		parents.add(directoryKey(directory));
+		traverseDirectory(directory, index, analyzer, parents);
+	}
+
+	/**
+	 * Traverses a directory, skipping any directory it is within so symbolic links
+	 * that form a loop are not followed forever.
+	 *
+	 * @param directory the directory to traverse
+	 * @param index the inverted index to add content to
+	 * @param analyzer the analyzer to stem files with
+	 * @param parents the keys of the directory and the directories it is within
+	 * @throws IOException if an I/O error occurs reading from the directory
+	 *
+	 * @see #directoryKey(Path)
+	 */
+	private static void traverseDirectory(Path directory, InvertedIndex index, Analyzer analyzer,
+			Set<Object> parents) throws IOException {
 		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
 			for (Path entry : stream) {
 				if (Files.isDirectory(entry)) {
-					traverseDirectory(entry, index);
+					Object key = directoryKey(entry);
+					if (parents.add(key)) {
+						traverseDirectory(entry, index, analyzer, parents);
+						parents.remove(key);
+					}
 				}
 				else if (isTextFile(entry)) {
-					processFile(entry, index);
+					processFile(entry, index, analyzer);
 				}
 			}
 		}
 	}
 
+	/**
+	 * Returns a key identifying a directory, which is the same for every path to
+	 * it, including through symbolic links. Uses the file key from the file system
+	 * where available, such as the device and inode, and the real path otherwise.
+	 *
+	 * @param directory the directory to identify
+	 * @return the key of the directory
+	 */
+	static Object directoryKey(Path directory) {
+		try {
+			Object key = Files.readAttributes(directory, BasicFileAttributes.class).fileKey();
+			return key != null ? key : directory.toRealPath();
+		}
+		catch (IOException e) {
+			// listing the directory will report the problem
+			return directory.toAbsolutePath().normalize();
+		}
+	}
+
 	/**
 	 * Checks if a given path corresponds to a text file.
 	 *
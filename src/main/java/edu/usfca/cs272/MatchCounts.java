@@ -0,0 +1,152 @@
+package edu.usfca.cs272;
+
+import java.util.Arrays;
+
+/**
+ * Totals the number of matching positions of each document id during a search.
+ * The counts are kept in a small open-addressed hash table from document id to
+ * count, sized by the postings of the words matched so far rather than by the
+ * number of documents in the index, so a query only allocates room for the
+ * documents it matches. Each search uses its own counts, which are dropped once
+ * the search is done.
+ *
+ * @see InvertedIndex.Ranking
+ */
+final class MatchCounts {
+	/** The fewest slots in the hash table, always a power of two. */
+	private static final int MIN_CAPACITY = 16;
+
+	/**
+	 * The index of each counted document in {@link #ids} plus one, by slot, or 0
+	 * for an empty slot. The table is never more than half full.
+	 */
+	private int[] table;
+
+	/** The document ids counted so far, in the order they were first counted. */
+	private int[] ids;
+
+	/** The number of matching positions of each document, in the order of ids. */
+	private int[] counts;
+
+	/** The number of document ids counted so far. */
+	private int size;
+
+	/**
+	 * Initializes empty counts.
+	 */
+	MatchCounts() {
+		this.table = new int[MIN_CAPACITY];
+		this.ids = new int[MIN_CAPACITY / 2];
+		this.counts = new int[MIN_CAPACITY / 2];
+		this.size = 0;
+	}
+
+	/**
+	 * Makes room for a number of documents beyond those already counted, such as
+	 * the documents of the next word to count, so counting them grows the table
+	 * at most once.
+	 *
+	 * @param documents the most documents that may be added
+	 */
+	void expect(int documents) {
+		int needed = size + documents;
+		if (needed > ids.length) {
+			int length = Math.max(needed, ids.length * 2);
+			ids = Arrays.copyOf(ids, length);
+			counts = Arrays.copyOf(counts, length);
+		}
+		if (needed * 2 > table.length) {
+			rehash(Integer.highestOneBit(needed * 2 - 1) << 1);
+		}
+	}
+
+	/**
+	 * Returns the first slot to look for a document id in.
+	 *
+	 * @param id the document id
+	 * @param mask one less than the number of slots
+	 * @return the first slot to probe
+	 */
+	private static int slot(int id, int mask) {
+		int hash = id * 0x9E3779B9;
+		return (hash ^ (hash >>> 16)) & mask;
+	}
+
+	/**
+	 * Moves every counted document into a new table.
+	 *
+	 * @param capacity the number of slots of the new table, a power of two
+	 */
+	private void rehash(int capacity) {
+		int[] rehashed = new int[capacity];
+		int mask = capacity - 1;
+		for (int i = 0; i < size; i++) {
+			int slot = slot(ids[i], mask);
+			while (rehashed[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			rehashed[slot] = i + 1;
+		}
+		table = rehashed;
+	}
+
+	/**
+	 * Adds to the count of a document.
+	 *
+	 * @param id the document id
+	 * @param count the number of matching positions to add, at least 1
+	 */
+	void add(int id, int count) {
+		int mask = table.length - 1;
+		int slot = slot(id, mask);
+		while (table[slot] != 0) {
+			int i = table[slot] - 1;
+			if (ids[i] == id) {
+				counts[i] += count;
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		if (size == ids.length) {
+			ids = Arrays.copyOf(ids, size * 2);
+			counts = Arrays.copyOf(counts, size * 2);
+		}
+		ids[size] = id;
+		counts[size] = count;
+		table[slot] = ++size;
+
+		if (size * 2 > table.length) {
+			rehash(table.length * 2);
+		}
+	}
+
+	/**
+	 * Returns the number of documents counted.
+	 *
+	 * @return the number of documents counted
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Returns a counted document id.
+	 *
+	 * @param i the index of the document, less than {@link #size()}
+	 * @return the document id
+	 */
+	int id(int i) {
+		return ids[i];
+	}
+
+	/**
+	 * Returns the count of a counted document.
+	 *
+	 * @param i the index of the document, less than {@link #size()}
+	 * @return the number of matching positions of the document
+	 */
+	int count(int i) {
+		return counts[i];
+	}
+}
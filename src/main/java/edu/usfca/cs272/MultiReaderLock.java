@@ -1,10 +1,16 @@
 package edu.usfca.cs272;
 
+import java.lang.invoke.VarHandle;
+import java.time.Duration;
+import java.util.ArrayDeque;
 import java.util.ConcurrentModificationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
 
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
@@ -16,6 +22,22 @@ import org.apache.logging.log4j.Logger;
  * threads, so long as there are no writers. The write lock is exclusive. The
  * active writer is able to acquire read or write locks as long as it is active.
  *
+ * <p>
+ * The order in which waiting threads are granted the lock is set by a
+ * {@link Policy}. Under the writer-preferring and fair policies the read lock is
+ * not reentrant: a thread holding the read lock must not acquire it again while
+ * a writer may be waiting. Readers may also skip the lock entirely with an
+ * optimistic read stamp, similar to {@link StampedLock#tryOptimisticRead()}.
+ *
+ * <p>
+ * Active readers are counted in stripes on separate cache lines, chosen by
+ * thread. While no writer holds or waits for the lock, the lock is biased
+ * towards readers and a reader acquires it by only updating its own stripe, so
+ * uncontended readers never write to a shared cache line. A writer revokes the
+ * bias and then waits for every stripe to drain. Since several threads may
+ * share a stripe, each thread also keeps its own count of the read locks it
+ * holds, and may only release a read lock it holds.
+ *
  * <!-- simplified lock used for this class -->
  * 
  * @see SimpleLock
@@ -25,19 +47,68 @@ import org.apache.logging.log4j.Logger;
  * @see ReentrantLock
  * @see ReadWriteLock
  * @see ReentrantReadWriteLock
+ * @see StampedLock
  *
  * @author CS 272 Software Development (University of San Francisco)
  * @version Spring 2024
  */
 public class MultiReaderLock {
+	/**
+	 * The order in which waiting threads are granted the lock.
+	 */
+	public enum Policy {
+		/**
+		 * Readers may acquire the lock whenever no writer holds it, even if writers
+		 * are waiting. Gives the best read throughput but a steady stream of readers
+		 * can starve writers.
+		 */
+		READER_PREFERRING,
+
+		/**
+		 * New readers wait while any writer is waiting, so writers are never starved
+		 * by readers.
+		 */
+		WRITER_PREFERRING,
+
+		/**
+		 * Threads are granted the lock in arrival order. Consecutive waiting readers
+		 * are granted the lock together.
+		 */
+		FAIR
+	}
+
 	/** The conditional lock used for reading. */
 	private final SimpleLock readerLock;
 
 	/** The conditional lock used for writing. */
 	private final SimpleLock writerLock;
 
-	/** The number of active readers. */
-	private int readers;
+	/** The order in which waiting threads are granted the lock. */
+	private final Policy policy;
+
+	/**
+	 * The number of stripes used to count readers. A power of two at least the
+	 * number of processors.
+	 */
+	private static final int STRIPES = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1);
+
+	/** The spacing between stripes, so each stripe sits on its own cache line. */
+	private static final int PADDING = 16;
+
+	/** The number of active readers, counted in stripes by thread. */
+	private final AtomicIntegerArray readers;
+
+	/**
+	 * Whether readers may acquire the lock by only updating their own stripe.
+	 * Cleared while any writer holds or waits for the lock.
+	 */
+	private volatile boolean isBiased;
+
+	/**
+	 * The number of read locks held by each thread, so a thread never releases a
+	 * read lock counted in its stripe by another thread.
+	 */
+	private final ThreadLocal<int[]> holds;
 
 	/** The number of active writers; */
 	private int writers;
@@ -45,6 +116,19 @@ public class MultiReaderLock {
 	/** The thread that holds the write lock. */
 	private Thread activeWriter;
 
+	/** The number of writers waiting for the lock. */
+	private int waitingWriters;
+
+	/** The threads waiting for the lock in arrival order, used by the fair policy. */
+	private final ArrayDeque<Waiter> waiting;
+
+	/**
+	 * Advanced whenever the write lock is acquired or fully released, so it is
+	 * odd exactly while a writer holds the lock. Starts at 2 since a stamp of 0
+	 * means an optimistic read could not be started.
+	 */
+	private volatile long version;
+
 	/** The log4j2 logger. */
 	private static final Logger log = LogManager.getLogger();
 
@@ -60,16 +144,35 @@ public class MultiReaderLock {
 	private final Object lock;
 
 	/**
-	 * Initializes a new simple read/write lock.
+	 * Initializes a new simple read/write lock that prefers readers.
 	 */
 	public MultiReaderLock() {
+		this(Policy.READER_PREFERRING);
+	}
+
+	/**
+	 * Initializes a new simple read/write lock with the given policy.
+	 *
+	 * @param policy the order in which waiting threads are granted the lock
+	 */
+	public MultiReaderLock(Policy policy) {
+		if (policy == null) {
+			throw new IllegalArgumentException("Lock policy must not be null");
+		}
+
 		readerLock = new ReadLock();
 		writerLock = new WriteLock();
+		this.policy = policy;
 
 		lock = new Object();
 
-		readers = 0;
+		readers = new AtomicIntegerArray(STRIPES * PADDING);
+		isBiased = true;
+		holds = ThreadLocal.withInitial(() -> new int[1]);
 		writers = 0;
+		waitingWriters = 0;
+		waiting = new ArrayDeque<>();
+		version = 2;
 
 		activeWriter = null;
 	}
@@ -92,15 +195,26 @@ public class MultiReaderLock {
 		return writerLock;
 	}
 
+	/**
+	 * Returns the policy used to grant the lock to waiting threads.
+	 *
+	 * @return the lock policy
+	 */
+	public Policy policy() {
+		return policy;
+	}
+
 	/**
 	 * Returns the number of active readers.
 	 *
 	 * @return the number of active readers
 	 */
 	public int readers() {
-		synchronized (lock) {
-			return readers;
+		int count = 0;
+		for (int i = 0; i < STRIPES; i++) {
+			count += readers.get(i * PADDING);
 		}
+		return count;
 	}
 
 	/**
@@ -129,6 +243,314 @@ public class MultiReaderLock {
 		}
 	}
 
+	/**
+	 * Returns a stamp for an optimistic read, or 0 if a writer holds the lock.
+	 * Neither acquiring nor validating a stamp writes to any shared state, so
+	 * readers never contend with each other. Data read after taking the stamp
+	 * may be inconsistent and must only be used once {@link #validate(long)}
+	 * confirms no writer has acquired the lock since.
+	 *
+	 * @return a stamp to validate later, or 0 if a writer holds the lock
+	 *
+	 * @see StampedLock#tryOptimisticRead()
+	 */
+	public long tryOptimisticRead() {
+		long stamp = version;
+		return (stamp & 1) == 0 ? stamp : 0;
+	}
+
+	/**
+	 * Returns whether the write lock has not been acquired since the stamp was
+	 * issued. Always false for a stamp of 0.
+	 *
+	 * @param stamp the stamp returned by {@link #tryOptimisticRead()}
+	 * @return true if no writer has acquired the lock since the stamp was issued
+	 *
+	 * @see StampedLock#validate(long)
+	 */
+	public boolean validate(long stamp) {
+		// keep the reads made under the stamp from moving past the version check
+		VarHandle.acquireFence();
+		return stamp != 0 && stamp == version;
+	}
+
+	/**
+	 * A thread waiting in line for the lock. Compared by identity, since several
+	 * threads may wait for the same kind of lock.
+	 */
+	private static class Waiter {
+		/** Whether the thread is waiting for the write lock. */
+		private final boolean isWriter;
+
+		/**
+		 * Initializes a new place in line.
+		 *
+		 * @param isWriter whether the thread is waiting for the write lock
+		 */
+		private Waiter(boolean isWriter) {
+			this.isWriter = isWriter;
+		}
+	}
+
+	/**
+	 * Determines whether the current thread may acquire the lock now. Must be
+	 * called while synchronized on the lock object.
+	 *
+	 * @param isWriter whether the write lock is requested
+	 * @param waiter the place of the thread in line, or null if it has not
+	 *   waited yet and so is behind every waiting thread
+	 * @return true if the lock may be granted
+	 */
+	private boolean isAvailable(boolean isWriter, Waiter waiter) {
+		if (writers > 0) {
+			return Thread.currentThread().equals(activeWriter);
+		}
+
+		if (isWriter && readers() > 0) {
+			return false;
+		}
+
+		return switch (policy) {
+			case READER_PREFERRING -> true;
+			case WRITER_PREFERRING -> isWriter || waitingWriters == 0;
+			case FAIR -> isWriter ? waiting.peekFirst() == waiter : !isWriterAhead(waiter);
+		};
+	}
+
+	/**
+	 * Determines whether a writer is waiting ahead of a thread in line. Must be
+	 * called while synchronized on the lock object.
+	 *
+	 * @param waiter the place of the thread in line, or null if it is behind
+	 *   every waiting thread
+	 * @return true if a writer is waiting ahead of the thread
+	 */
+	private boolean isWriterAhead(Waiter waiter) {
+		for (Waiter ahead : waiting) {
+			if (ahead == waiter) {
+				return false;
+			}
+			if (ahead.isWriter) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Acquires the read or write lock, waiting at most the given time.
+	 *
+	 * @param isWriter whether to acquire the write lock
+	 * @param nanos the longest time to wait in nanoseconds, or a negative value
+	 *   to wait as long as needed
+	 * @param interruptible whether an interrupt while waiting aborts the attempt;
+	 *   otherwise the interrupt status is re-asserted once the attempt ends
+	 * @return true if the lock was acquired
+	 * @throws InterruptedException if interruptible and the thread is interrupted
+	 *   before or while waiting
+	 */
+	private boolean acquire(boolean isWriter, long nanos, boolean interruptible) throws InterruptedException {
+		if (interruptible && Thread.interrupted()) {
+			throw new InterruptedException();
+		}
+
+		if (!isWriter && tryBiasedRead()) {
+			return true;
+		}
+
+		synchronized (lock) {
+			if (isWriter) {
+				// must be visible to readers before the stripes are counted
+				isBiased = false;
+			}
+
+			if (!isAvailable(isWriter, null)) {
+				if (nanos == 0) {
+					if (isWriter) {
+						restoreBias();
+					}
+					return false;
+				}
+				if (!await(isWriter, nanos, interruptible)) {
+					return false;
+				}
+			}
+
+			if (isWriter) {
+				if (writers == 0) {
+					version++;
+					activeWriter = Thread.currentThread();
+				}
+				writers++;
+			}
+			else {
+				readers.incrementAndGet(stripe());
+				holds.get()[0]++;
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Returns the offset of the stripe used to count the current thread as a
+	 * reader.
+	 *
+	 * @return the offset of the stripe
+	 */
+	private static int stripe() {
+		return ((int) Thread.currentThread().threadId() & (STRIPES - 1)) * PADDING;
+	}
+
+	/**
+	 * Tries to acquire the read lock without synchronizing, by counting the
+	 * current thread in its stripe while the lock is biased towards readers.
+	 *
+	 * @return true if the read lock was acquired
+	 */
+	private boolean tryBiasedRead() {
+		if (!isBiased) {
+			return false;
+		}
+
+		readers.incrementAndGet(stripe());
+		if (isBiased) {
+			holds.get()[0]++;
+			return true;
+		}
+
+		// a writer revoked the bias meanwhile, so back out and wait in line
+		leave();
+		return false;
+	}
+
+	/**
+	 * Releases a read lock held by the current thread.
+	 *
+	 * @throws IllegalStateException if the current thread holds no read lock
+	 */
+	private void releaseRead() throws IllegalStateException {
+		int[] held = holds.get();
+		if (held[0] == 0) {
+			throw new IllegalStateException("Read lock not held by this thread");
+		}
+		held[0]--;
+		leave();
+	}
+
+	/**
+	 * Uncounts the current thread from its stripe, waking waiting threads if a
+	 * writer may be waiting for the last reader to leave.
+	 */
+	private void leave() {
+		readers.decrementAndGet(stripe());
+
+		if (!isBiased) {
+			synchronized (lock) {
+				if (readers() == 0) {
+					lock.notifyAll();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Biases the lock towards readers again once no writer holds or waits for
+	 * it. Must be called while synchronized on the lock object.
+	 */
+	private void restoreBias() {
+		isBiased = writers == 0 && waitingWriters == 0;
+	}
+
+	/**
+	 * Waits in line until the lock is available. Must be called while
+	 * synchronized on the lock object.
+	 *
+	 * @param isWriter whether the write lock is requested
+	 * @param nanos the longest time to wait in nanoseconds, or a negative value
+	 *   to wait as long as needed
+	 * @param interruptible whether an interrupt while waiting aborts the wait
+	 * @return true if the lock is available, false if the time ran out
+	 * @throws InterruptedException if interruptible and the thread is interrupted
+	 *   while waiting
+	 */
+	private boolean await(boolean isWriter, long nanos, boolean interruptible) throws InterruptedException {
+		Waiter waiter = new Waiter(isWriter);
+		long deadline = System.nanoTime() + nanos;
+		boolean available = false;
+		boolean interrupted = false;
+
+		waiting.addLast(waiter);
+		if (isWriter) {
+			waitingWriters++;
+		}
+
+		try {
+			while (!isAvailable(isWriter, waiter)) {
+				try {
+					if (nanos < 0) {
+						lock.wait();
+					}
+					else {
+						long remaining = deadline - System.nanoTime();
+						if (remaining <= 0) {
+							return false;
+						}
+						TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+					}
+				}
+				catch (InterruptedException ex) {
+					if (interruptible) {
+						throw ex;
+					}
+					log.catching(Level.DEBUG, ex);
+					interrupted = true;
+				}
+			}
+			available = true;
+			return true;
+		}
+		finally {
+			waiting.remove(waiter);
+			if (isWriter) {
+				waitingWriters--;
+			}
+
+			if (!available) {
+				if (isWriter) {
+					restoreBias();
+				}
+
+				// giving up may let the threads waiting behind this one proceed
+				if (policy != Policy.READER_PREFERRING) {
+					lock.notifyAll();
+				}
+			}
+
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Acquires the read or write lock without being interrupted, waiting at most
+	 * the given time.
+	 *
+	 * @param isWriter whether to acquire the write lock
+	 * @param nanos the longest time to wait in nanoseconds, or a negative value
+	 *   to wait as long as needed
+	 * @return true if the lock was acquired
+	 */
+	private boolean acquireUninterruptibly(boolean isWriter, long nanos) {
+		try {
+			return acquire(isWriter, nanos, false);
+		}
+		catch (InterruptedException ex) {
+			// never thrown when not interruptible
+			throw new IllegalStateException(ex);
+		}
+	}
+
 	/**
 	 * A simple lock used for conditional synchronization as an alternative to using
 	 * a {@code synchronized} block.
@@ -146,6 +568,31 @@ public class MultiReaderLock {
 		 */
 		public void lock();
 
+		/**
+		 * Acquires the lock unless the current thread is interrupted while waiting.
+		 *
+		 * @throws InterruptedException if the thread is interrupted before or while
+		 *   waiting for the lock
+		 */
+		public void lockInterruptibly() throws InterruptedException;
+
+		/**
+		 * Acquires the lock only if it is available at the time of the call.
+		 *
+		 * @return true if the lock was acquired
+		 */
+		public boolean tryLock();
+
+		/**
+		 * Acquires the lock if it becomes available within the given time.
+		 *
+		 * @param timeout the longest time to wait for the lock
+		 * @return true if the lock was acquired
+		 * @throws InterruptedException if the thread is interrupted before or while
+		 *   waiting for the lock
+		 */
+		public boolean tryLock(Duration timeout) throws InterruptedException;
+
 		/**
 		 * Releases the lock.
 		 */
@@ -158,41 +605,41 @@ public class MultiReaderLock {
 	private class ReadLock implements SimpleLock {
 		/**
 		 * Controls access to the read lock. The active thread is forced to wait while
-		 * there are any active writers and it is not the active writer thread. Once
-		 * safe, the thread is allowed to acquire a read lock by incrementing the number
-		 * of active readers.
+		 * there are any active writers and it is not the active writer thread, or
+		 * while the lock policy gives waiting writers priority. Once safe, the thread
+		 * is allowed to acquire a read lock by incrementing the number of active
+		 * readers.
 		 */
 		@Override
 		public void lock() {
-			synchronized (lock) {
-				try {
-					while (writers > 0 && !isActiveWriter()) {
-						lock.wait();
-					}
-					readers++;
-				}
-				catch (InterruptedException ex) {
-					log.catching(Level.DEBUG, ex);
-					Thread.currentThread().interrupt();
-				}
-			}
+			acquireUninterruptibly(false, -1);
+		}
+
+		@Override
+		public void lockInterruptibly() throws InterruptedException {
+			acquire(false, -1, true);
+		}
+
+		@Override
+		public boolean tryLock() {
+			return acquireUninterruptibly(false, 0);
+		}
+
+		@Override
+		public boolean tryLock(Duration timeout) throws InterruptedException {
+			return acquire(false, Math.max(0, timeout.toNanos()), true);
 		}
 
 		/**
 		 * Will decrease the number of active readers and notify any waiting threads if
-		 * necessary.
+		 * necessary. Only writers wait on readers, so waiting threads are only woken
+		 * once the last reader leaves, and only if the bias has been revoked.
 		 *
-		 * @throws IllegalStateException if no readers to unlock
+		 * @throws IllegalStateException if the current thread holds no read lock
 		 */
 		@Override
 		public void unlock() throws IllegalStateException {
-			synchronized (lock) {
-				if (readers == 0) {
-					throw new IllegalStateException();
-				}
-				readers--;
-				lock.notifyAll();
-			}
+			releaseRead();
 		}
 	}
 
@@ -210,20 +657,22 @@ public class MultiReaderLock {
 		//	//CITE: Help in CSLABS
 		@Override
 		public void lock() {
-			synchronized (lock) {
-				Thread currentThread = Thread.currentThread();
-				while (readers > 0 | writers > 0 && !isActiveWriter()) {
-					try {
-						lock.wait();
-					}
-					catch (InterruptedException e) {
-						currentThread.interrupt();
-						log.catching(Level.DEBUG, e);
-					}
-				}
-				writers++;
-				activeWriter = currentThread;
-			}
+			acquireUninterruptibly(true, -1);
+		}
+
+		@Override
+		public void lockInterruptibly() throws InterruptedException {
+			acquire(true, -1, true);
+		}
+
+		@Override
+		public boolean tryLock() {
+			return acquireUninterruptibly(true, 0);
+		}
+
+		@Override
+		public boolean tryLock(Duration timeout) throws InterruptedException {
+			return acquire(true, Math.max(0, timeout.toNanos()), true);
 		}
 
 		/**
@@ -245,9 +694,11 @@ public class MultiReaderLock {
 					throw new ConcurrentModificationException();
 				}
 				writers--;
-				lock.notifyAll();
 				if (writers == 0) {
 					activeWriter = null;
+					version++;
+					restoreBias();
+					lock.notifyAll();
 				}
 			}
 		}
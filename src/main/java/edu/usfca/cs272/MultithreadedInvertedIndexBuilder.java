@@ -5,11 +5,52 @@ import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 /**
  * 
  */
 public class MultithreadedInvertedIndexBuilder {
+	/** The log4j2 logger. */
+	private static final Logger log = LogManager.getLogger();
+
+	/**
+	 * The size in bytes above which a file is split into ranges indexed by
+	 * separate tasks.
+	 */
+	public static final long SPLIT_SIZE = 1 << 20;
+
+	/**
+	 * The most ranges of a split file stemmed ahead of the last range added, which
+	 * bounds the stems held in memory for a file at once.
+	 */
+	public static final int RANGES_AHEAD = 4;
+
+	/** Ignores files that could not be indexed, once they have been reported. */
+	private static final Consumer<Path> IGNORE_FAILED = file -> {
+	};
+
+	/**
+	 * The order directories are listed in when traversing.
+	 */
+	public enum Order {
+		/** Lists the most recently found directory next. */
+		DEPTH_FIRST,
+
+		/** Lists the least recently found directory next. */
+		BREADTH_FIRST
+	}
 
 	/**
 	 * Builds an inverted index from a given path. If the path is a directory, it
@@ -21,15 +62,138 @@ public class MultithreadedInvertedIndexBuilder {
 	 *   directory)
 	 */
 
-	public static void build(Path textPath, ThreadSafeInvertedIndex threadSafeInvertedIndex, WorkQueue workQueue)
+	public static void build(Path textPath, ConcurrentInvertedIndex threadSafeInvertedIndex, WorkQueue workQueue)
 			throws IOException {
-		if (Files.isDirectory(textPath)) {
-			traverseDirectory(textPath, threadSafeInvertedIndex, workQueue);
+		build(textPath, threadSafeInvertedIndex, workQueue, Order.DEPTH_FIRST);
+	}
+
+	/**
+	 * Builds an inverted index from a given path, listing directories in the given
+	 * order.
+	 *
+	 * @param textPath the path to the file or directory
+	 * @param threadSafeInvertedIndex the inverted index to build
+	 * @param workQueue the work queue to list directories and process files with
+	 * @param order the order to list directories in
+	 * @throws IOException if an I/O error occurs (reading from the file or
+	 *   directory)
+	 */
+	public static void build(Path textPath, ConcurrentInvertedIndex threadSafeInvertedIndex, WorkQueue workQueue,
+			Order order) throws IOException {
+		build(textPath, threadSafeInvertedIndex, workQueue, order, Analyzer.ENGLISH);
+	}
+
+	/**
+	 * Builds an inverted index from a given path, listing directories in the given
+	 * order and stemming files with an analyzer.
+	 *
+	 * @param textPath the path to the file or directory
+	 * @param threadSafeInvertedIndex the inverted index to build
+	 * @param workQueue the work queue to list directories and process files with
+	 * @param order the order to list directories in
+	 * @param analyzer the analyzer to stem files with
+	 * @throws IOException if an I/O error occurs (reading from the file or
+	 *   directory)
+	 */
+	public static void build(Path textPath, ConcurrentInvertedIndex threadSafeInvertedIndex, WorkQueue workQueue,
+			Order order, Analyzer analyzer) throws IOException {
+		start(textPath, threadSafeInvertedIndex, workQueue, order, analyzer).join();
+	}
+
+	/**
+	 * Starts building an inverted index from a given path without waiting for it
+	 * to finish, so other work such as parsing queries can overlap the build.
+	 *
+	 * @param textPath the path to the file or directory
+	 * @param threadSafeInvertedIndex the inverted index to build
+	 * @param workQueue the work queue to list directories and process files with
+	 * @param order the order to list directories in
+	 * @param analyzer the analyzer to stem files with
+	 * @return a future completed once every file is processed
+	 *
+	 * @see #build(Path, ConcurrentInvertedIndex, WorkQueue, Order, Analyzer)
+	 */
+	public static CompletableFuture<Void> start(Path textPath, ConcurrentInvertedIndex threadSafeInvertedIndex,
+			WorkQueue workQueue, Order order, Analyzer analyzer) {
+		WorkQueue.TaskGroup tasks = workQueue.group();
+		try {
+			if (Files.isDirectory(textPath)) {
+				new Traversal(threadSafeInvertedIndex, analyzer, tasks, workQueue.size(), order).start(textPath);
+			}
+			else {
+				processFile(textPath, threadSafeInvertedIndex, analyzer, tasks, IGNORE_FAILED);
+			}
+		}
+		catch (RuntimeException e) {
+			// wait for any tasks already started before giving up
+			tasks.finish();
+			throw e;
+		}
+		return tasks.whenFinished();
+	}
+
+	/**
+	 * Updates an index saved in a directory to match the files at a path, instead
+	 * of building it from scratch. The files that were added or changed are
+	 * processed by the work queue, and any that could not be indexed are left out
+	 * of the manifest so the next update tries them again. A saved index built
+	 * with a different analyzer is ignored and every file is processed.
+	 *
+	 * @param textPath the path to the file or directory
+	 * @param threadSafeInvertedIndex the inverted index to build
+	 * @param workQueue the work queue to process files with
+	 * @param directory the directory of the saved segment and manifest
+	 * @param analyzer the analyzer to stem files with
+	 * @return the manifest of the files now in the index, to save with it
+	 * @throws IOException if an I/O error occurs reading the saved index or the
+	 *   files
+	 *
+	 * @see InvertedIndexBuilder#update(Path, InvertedIndex, Path, Analyzer)
+	 */
+	public static IndexManifest update(Path textPath, ConcurrentInvertedIndex threadSafeInvertedIndex,
+			WorkQueue workQueue, Path directory, Analyzer analyzer) throws IOException {
+		IndexManifest previous = new IndexManifest(analyzer);
+		if (IndexManifest.canUpdate(directory)) {
+			IndexManifest saved = IndexManifest.read(directory);
+			if (saved.isFor(analyzer)) {
+				previous = saved;
+				threadSafeInvertedIndex.merge(CompactInvertedIndex.open(directory));
+			}
+		}
+
+		IndexManifest current = IndexManifest.scan(textPath, previous, analyzer);
+		for (String location : previous.stale(current)) {
+			threadSafeInvertedIndex.removeLocation(location);
+		}
+
+		for (Path failed : processFiles(current.changed(previous), threadSafeInvertedIndex, workQueue, analyzer)) {
+			current.remove(failed);
+		}
+		return current;
+	}
+
+	/**
+	 * Processes a list of files and waits for them to be added to the index.
+	 *
+	 * @param files the files to process
+	 * @param threadSafeInvertedIndex the inverted index to add content to
+	 * @param workQueue the work queue to process files with
+	 * @param analyzer the analyzer to stem files with
+	 * @return the files that could not be indexed, which are left out of the index
+	 */
+	public static Set<Path> processFiles(Collection<Path> files, ConcurrentInvertedIndex threadSafeInvertedIndex,
+			WorkQueue workQueue, Analyzer analyzer) {
+		Set<Path> failed = ConcurrentHashMap.newKeySet();
+		WorkQueue.TaskGroup tasks = workQueue.group();
+		try {
+			for (Path file : files) {
+				processFile(file, threadSafeInvertedIndex, analyzer, tasks, failed::add);
+			}
 		}
-		else {
-			processFile(textPath, threadSafeInvertedIndex, workQueue);
+		finally {
+			tasks.finish();
 		}
-		workQueue.finish();
+		return failed;
 	}
 
 	/**
@@ -39,9 +203,149 @@ public class MultithreadedInvertedIndexBuilder {
 	 * @param invertedIndex the inverted index to add content to
 	 * @throws IOException if an I/O error occurs reading from the file
 	 */
-	public static void processFile(Path file, ThreadSafeInvertedIndex threadSafeInvertedIndex, WorkQueue workQueue)
+	public static void processFile(Path file, ConcurrentInvertedIndex threadSafeInvertedIndex, WorkQueue workQueue)
 			throws IOException {
-		workQueue.execute(new Process(file, threadSafeInvertedIndex));
+		workQueue.execute(new Process(file, threadSafeInvertedIndex, Analyzer.ENGLISH, IGNORE_FAILED));
+	}
+
+	/**
+	 * Processes a single file as part of a group of tasks. Files larger than
+	 * {@link #SPLIT_SIZE} are split into ranges stemmed by separate tasks, unless
+	 * the index is segmented, since each segment must hold whole files.
+	 *
+	 * @param file the file to process
+	 * @param index the inverted index to add content to
+	 * @param analyzer the analyzer to stem the file with
+	 * @param tasks the group of tasks to process the file in
+	 * @param failed accepts the file if it could not be indexed
+	 */
+	private static void processFile(Path file, ConcurrentInvertedIndex index, Analyzer analyzer,
+			WorkQueue.TaskGroup tasks, Consumer<Path> failed) {
+		try {
+			if (!(index instanceof SegmentedInvertedIndex) && Files.size(file) > SPLIT_SIZE) {
+				processRanges(file, index, analyzer, tasks, failed);
+				return;
+			}
+		}
+		catch (IOException e) {
+			// let the task report the file as it would any other unreadable file
+		}
+
+		tasks.execute(new Process(file, index, analyzer, failed));
+	}
+
+	/**
+	 * Stems the ranges of a large file in parallel and adds them to the index in
+	 * order. Each range is added once every range before it has been, starting at
+	 * the position after the last word of the previous range, so positions are
+	 * the same as if the file were read from start to end. Ranges are added by
+	 * whichever task finishes the last of the range and the range before it, so no
+	 * task waits on another.
+	 *
+	 * <p>
+	 * At most {@link #RANGES_AHEAD} ranges are stemmed at first, and each range
+	 * added starts stemming the next one, so a range that is slow to stem never
+	 * leaves the stems of every later range waiting in memory. If any range
+	 * fails to stem or be added, every range not yet stemmed fails with it, since
+	 * the ranges waiting on it would otherwise never start. No later range is
+	 * added, and once the ranges being added are done the file is removed from
+	 * the index again.
+	 *
+	 * @param file the file to process
+	 * @param index the inverted index to add content to
+	 * @param analyzer the analyzer to stem the file with
+	 * @param tasks the group of tasks to process the file in
+	 * @param failed accepts the file if it could not be indexed
+	 * @throws IOException if an I/O error occurs splitting the file
+	 */
+	private static void processRanges(Path file, ConcurrentInvertedIndex index, Analyzer analyzer,
+			WorkQueue.TaskGroup tasks, Consumer<Path> failed) throws IOException {
+		List<Long> offsets = FileTokenizer.split(file, SPLIT_SIZE);
+		String location = file.toString();
+		int count = offsets.size() - 1;
+
+		// the stems of each range, cleared once the range is added
+		AtomicReferenceArray<CompletableFuture<ArrayList<String>>> ranges = new AtomicReferenceArray<>(count);
+		for (int i = 0; i < count; i++) {
+			ranges.set(i, new CompletableFuture<>());
+		}
+		for (int i = 0; i < Math.min(count, RANGES_AHEAD); i++) {
+			stemRange(file, offsets, i, analyzer, tasks, ranges.get(i));
+		}
+
+		// the position of the first word of the next range
+		CompletableFuture<Integer> next = CompletableFuture.completedFuture(1);
+		for (int i = 0; i < count; i++) {
+			int range = i;
+			ranges.get(range).whenComplete((stems, e) -> {
+				if (e != null) {
+					failRanges(ranges, e);
+				}
+			});
+
+			next = next.thenCombine(ranges.get(range), (position, stems) -> {
+				ranges.set(range, null);
+				index.addAllStems(stems, location, position);
+
+				int ahead = range + RANGES_AHEAD;
+				if (ahead < count) {
+					stemRange(file, offsets, ahead, analyzer, tasks, ranges.get(ahead));
+				}
+				return position + stems.size();
+			}).whenComplete((position, e) -> {
+				if (e != null) {
+					failRanges(ranges, e);
+				}
+			});
+		}
+
+		next.exceptionally(e -> {
+			index.removeLocation(location);
+			failed.accept(file);
+			log.warn("Unable to index {}; removed it from the index.", location, e);
+			return null;
+		});
+	}
+
+	/**
+	 * Fails every range of a split file that has not been stemmed yet, so the
+	 * ranges waiting on them are not left waiting forever. The stems of ranges
+	 * still being stemmed are discarded once done.
+	 *
+	 * @param ranges the stems of each range, or null for ranges already added
+	 * @param cause the failure of the range that failed first
+	 */
+	private static void failRanges(AtomicReferenceArray<CompletableFuture<ArrayList<String>>> ranges,
+			Throwable cause) {
+		for (int i = 0; i < ranges.length(); i++) {
+			CompletableFuture<ArrayList<String>> range = ranges.get(i);
+			if (range != null) {
+				range.completeExceptionally(cause);
+			}
+		}
+	}
+
+	/**
+	 * Stems one range of a split file in a new task.
+	 *
+	 * @param file the file to stem
+	 * @param offsets the offsets the file was split at
+	 * @param range the range to stem, between the offset at that index and the
+	 *   next
+	 * @param analyzer the analyzer to stem the file with
+	 * @param tasks the group of tasks to stem the range in
+	 * @param stems the future to complete with the stems of the range
+	 */
+	private static void stemRange(Path file, List<Long> offsets, int range, Analyzer analyzer,
+			WorkQueue.TaskGroup tasks, CompletableFuture<ArrayList<String>> stems) {
+		tasks.execute(() -> {
+			try {
+				stems.complete(FileStemmer.listStems(file, offsets.get(range), offsets.get(range + 1), analyzer));
+			}
+			catch (IOException | RuntimeException e) {
+				stems.completeExceptionally(e);
+			}
+		});
 	}
 
 	/**
@@ -53,17 +357,178 @@ public class MultithreadedInvertedIndexBuilder {
 	 * @throws IOException if an I/O error occurs reading from the directory
 	 */
 
-	public static void traverseDirectory(Path directory, ThreadSafeInvertedIndex index, WorkQueue workQueue)
+	public static void traverseDirectory(Path directory, ConcurrentInvertedIndex index, WorkQueue workQueue)
 			throws IOException {
-		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
-			for (Path entry : stream) {
-				if (Files.isDirectory(entry)) {
-					traverseDirectory(entry, index, workQueue);
+		new Traversal(index, Analyzer.ENGLISH, workQueue.group(), workQueue.size(), Order.DEPTH_FIRST).start(directory);
+	}
+
+	/**
+	 * Lists directories in parallel, processing text files as soon as they are
+	 * found. Directories waiting to be listed are kept in a shared deque, and up
+	 * to a limited number of listing tasks take directories from it until it is
+	 * empty. Listing tasks are started as blocking tasks whenever a directory is
+	 * found and fewer than the limit are running. Since several directories are
+	 * listed at once, the order is only followed approximately.
+	 *
+	 * <p>
+	 * Symbolic links to directories are followed, except to a directory that is
+	 * already being traversed higher up the same path, so links that form a loop
+	 * are never followed forever.
+	 */
+	private static class Traversal implements Runnable {
+		/** The inverted index to add files to. */
+		private final ConcurrentInvertedIndex index;
+
+		/** The analyzer to stem files with. */
+		private final Analyzer analyzer;
+
+		/** The group of tasks to list directories and process files in. */
+		private final WorkQueue.TaskGroup tasks;
+
+		/** The most listing tasks to run at once. */
+		private final int limit;
+
+		/** The order to list directories in. */
+		private final Order order;
+
+		/** The directories found but not yet listed, newest first. */
+		private final ConcurrentLinkedDeque<Directory> frontier;
+
+		/** The number of listing tasks running. */
+		private final AtomicInteger active;
+
+		/**
+		 * Initializes a traversal.
+		 *
+		 * @param index the inverted index to add files to
+		 * @param analyzer the analyzer to stem files with
+		 * @param tasks the group of tasks to list directories and process files in
+		 * @param limit the most listing tasks to run at once
+		 * @param order the order to list directories in
+		 */
+		public Traversal(ConcurrentInvertedIndex index, Analyzer analyzer, WorkQueue.TaskGroup tasks, int limit,
+				Order order) {
+			this.index = index;
+			this.analyzer = analyzer;
+			this.tasks = tasks;
+			this.limit = limit;
+			this.order = order;
+			this.frontier = new ConcurrentLinkedDeque<>();
+			this.active = new AtomicInteger();
+		}
+
+		/**
+		 * A directory waiting to be listed, along with the directory it was found in.
+		 * Each directory links back to its parent, so the chain of parents is the
+		 * path the traversal took to reach it.
+		 *
+		 * @param path the path of the directory as it was found, which may pass
+		 *   through symbolic links
+		 * @param key the key identifying the directory however it is reached, used
+		 *   to tell whether following it would form a loop
+		 * @param parent the directory it was found in, or null for the directory the
+		 *   traversal started from
+		 *
+		 * @see InvertedIndexBuilder#directoryKey(Path)
+		 */
+		private record Directory(Path path, Object key, Directory parent) {
+			/**
+			 * Checks whether a directory is this one or one it was found within.
+			 *
+			 * @param other the key of the directory to check
+			 * @return true if following the directory would form a loop
+			 */
+			private boolean isWithin(Object other) {
+				for (Directory directory = this; directory != null; directory = directory.parent) {
+					if (directory.key.equals(other)) {
+						return true;
+					}
 				}
-				else if (isTextFile(entry)) {
-					processFile(entry, index, workQueue);
+				return false;
+			}
+		}
+
+		/**
+		 * Starts traversing from a directory.
+		 *
+		 * @param directory the directory to traverse
+		 */
+		public void start(Path directory) {
+			frontier.addFirst(new Directory(directory, InvertedIndexBuilder.directoryKey(directory), null));
+			spawn();
+		}
+
+		/**
+		 * Adds a directory to be listed unless it would form a loop.
+		 *
+		 * @param directory the directory found
+		 * @param parent the directory it was found in
+		 */
+		private void found(Path directory, Directory parent) {
+			Object key = InvertedIndexBuilder.directoryKey(directory);
+			if (!parent.isWithin(key)) {
+				frontier.addFirst(new Directory(directory, key, parent));
+				spawn();
+			}
+		}
+
+		/**
+		 * Starts another listing task if fewer than the limit are running.
+		 */
+		private void spawn() {
+			int count;
+			do {
+				count = active.get();
+				if (count >= limit) {
+					// a running task will list it before finishing
+					return;
 				}
 			}
+			while (!active.compareAndSet(count, count + 1));
+			tasks.executeBlocking(this);
+		}
+
+		/**
+		 * Lists directories until none are left.
+		 */
+		@Override
+		public void run() {
+			try {
+				Directory directory;
+				while ((directory = order == Order.DEPTH_FIRST ? frontier.pollFirst() : frontier.pollLast()) != null) {
+					list(directory);
+				}
+			}
+			finally {
+				active.decrementAndGet();
+			}
+
+			// another task may have skipped starting a task while this one finished
+			if (!frontier.isEmpty()) {
+				spawn();
+			}
+		}
+
+		/**
+		 * Lists a directory, processing its text files and adding its directories to
+		 * be listed.
+		 *
+		 * @param directory the directory to list
+		 */
+		private void list(Directory directory) {
+			try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory.path())) {
+				for (Path entry : stream) {
+					if (Files.isDirectory(entry)) {
+						found(entry, directory);
+					}
+					else if (isTextFile(entry)) {
+						processFile(entry, index, analyzer, tasks, IGNORE_FAILED);
+					}
+				}
+			}
+			catch (IOException e) {
+				System.out.println("Error traversing directory: " + directory.path());
+			}
 		}
 	}
 
@@ -81,21 +546,31 @@ public class MultithreadedInvertedIndexBuilder {
 
 	private static class Process implements Runnable {
 		private Path p;
-		private ThreadSafeInvertedIndex threadSafeInvertedIndex;
+		private ConcurrentInvertedIndex threadSafeInvertedIndex;
+
+		/** The analyzer to stem the file with. */
+		private Analyzer analyzer;
+
+		/** Accepts the file if it could not be indexed. */
+		private Consumer<Path> failed;
 
-		public Process(Path p, ThreadSafeInvertedIndex threadSafeInvertedIndex) {
+		public Process(Path p, ConcurrentInvertedIndex threadSafeInvertedIndex, Analyzer analyzer,
+				Consumer<Path> failed) {
 			this.p = p;
 			this.threadSafeInvertedIndex = threadSafeInvertedIndex;
+			this.analyzer = analyzer;
+			this.failed = failed;
 		}
 
 		@Override
 		public void run() {
 			try {
-				ArrayList<String> stems = FileStemmer.listStems(p);
-				String pathOfFile = p.toString();
-				threadSafeInvertedIndex.addAllStems(stems, pathOfFile, 1);
+				threadSafeInvertedIndex.addFile(p, analyzer);
 			}
 			catch (Exception e) {
+				// the file may have been partly added before failing
+				threadSafeInvertedIndex.removeLocation(p.toString());
+				failed.accept(p);
 				System.out.println("Error processing file: " + p.toString());
 			}
 		}
@@ -0,0 +1,178 @@
+package edu.usfca.cs272;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A sorted set of word positions backed by a growable {@code int} array. Since
+ * builders add positions in increasing order, appending is the common case and
+ * avoids the boxed {@link Integer} and tree node allocated per position by a
+ * {@link java.util.TreeSet}. Out-of-order positions are still inserted in
+ * sorted order, and duplicates are ignored.
+ */
+public class PositionList extends AbstractSet<Integer> {
+	/** The initial capacity of the backing array. */
+	private static final int INITIAL_CAPACITY = 4;
+
+	/** The positions, sorted in increasing order. */
+	private int[] positions;
+
+	/** The number of positions in use. */
+	private int size;
+
+	/**
+	 * Initializes an empty position list.
+	 */
+	public PositionList() {
+		this.positions = new int[INITIAL_CAPACITY];
+		this.size = 0;
+	}
+
+	/**
+	 * Adds a position to the list, keeping the list sorted.
+	 *
+	 * @param position the position to add
+	 * @return true if the position was added, false if it was already present
+	 */
+	public boolean add(int position) {
+		if (size == 0 || position > positions[size - 1]) {
+			ensureCapacity(size + 1);
+			positions[size++] = position;
+			return true;
+		}
+
+		int index = Arrays.binarySearch(positions, 0, size, position);
+		if (index >= 0) {
+			return false;
+		}
+
+		index = -(index + 1);
+		ensureCapacity(size + 1);
+		System.arraycopy(positions, index, positions, index + 1, size - index);
+		positions[index] = position;
+		size++;
+		return true;
+	}
+
+	@Override
+	public boolean add(Integer position) {
+		return add(position.intValue());
+	}
+
+	/**
+	 * Adds all positions of another list to this one.
+	 *
+	 * @param other the positions to add
+	 * @return true if any positions were added
+	 */
+	public boolean addAll(PositionList other) {
+		if (other.size == 0) {
+			return false;
+		}
+
+		if (size == 0 || other.positions[0] > positions[size - 1]) {
+			ensureCapacity(size + other.size);
+			System.arraycopy(other.positions, 0, positions, size, other.size);
+			size += other.size;
+			return true;
+		}
+
+		int[] merged = new int[size + other.size];
+		int i = 0, j = 0, k = 0;
+		while (i < size && j < other.size) {
+			int a = positions[i];
+			int b = other.positions[j];
+			if (a < b) {
+				merged[k++] = a;
+				i++;
+			}
+			else if (b < a) {
+				merged[k++] = b;
+				j++;
+			}
+			else {
+				merged[k++] = a;
+				i++;
+				j++;
+			}
+		}
+		while (i < size) {
+			merged[k++] = positions[i++];
+		}
+		while (j < other.size) {
+			merged[k++] = other.positions[j++];
+		}
+
+		boolean changed = k != size;
+		positions = merged;
+		size = k;
+		return changed;
+	}
+
+	/**
+	 * Checks if the list contains a position.
+	 *
+	 * @param position the position to check
+	 * @return true if the position is in the list
+	 */
+	public boolean contains(int position) {
+		return Arrays.binarySearch(positions, 0, size, position) >= 0;
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		return o instanceof Integer position && contains(position.intValue());
+	}
+
+	/**
+	 * Returns the position at the given index of the sorted list.
+	 *
+	 * @param index the index of the position
+	 * @return the position at that index
+	 * @throws IndexOutOfBoundsException if the index is out of range
+	 */
+	public int get(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException(index);
+		}
+		return positions[index];
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public Iterator<Integer> iterator() {
+		return new Iterator<>() {
+			private int index = 0;
+
+			@Override
+			public boolean hasNext() {
+				return index < size;
+			}
+
+			@Override
+			public Integer next() {
+				if (index >= size) {
+					throw new NoSuchElementException();
+				}
+				return positions[index++];
+			}
+		};
+	}
+
+	/**
+	 * Grows the backing array if needed to hold the given number of positions.
+	 *
+	 * @param capacity the number of positions to hold
+	 */
+	private void ensureCapacity(int capacity) {
+		if (capacity > positions.length) {
+			positions = Arrays.copyOf(positions, Math.max(capacity, positions.length * 2));
+		}
+	}
+}
@@ -13,8 +13,6 @@ import java.util.TreeMap;
 import java.util.TreeSet;
 
 import edu.usfca.cs272.InvertedIndex.SearchResult;
-import opennlp.tools.stemmer.Stemmer;
-import opennlp.tools.stemmer.snowball.SnowballStemmer;
 
 /**
  * Processes the text files for search queries and maintains a map of search
@@ -33,11 +31,11 @@ public class QueryProcessor {
 	private final Map<String, List<InvertedIndex.SearchResult>> searchResults;
 
 	/**
-	 * The stemmer used for reducing words to their base or root form. This aids in
-	 * normalizing the search queries to increase the effectiveness of matching
+	 * The analyzer used for reducing words to their base or root form. This aids
+	 * in normalizing the search queries to increase the effectiveness of matching
 	 * terms in the inverted index.
 	 */
-	private final Stemmer stemmer;
+	private final Analyzer analyzer;
 
 	/**
 	 * The inverted index used to perform searches. This index is a complex data
@@ -51,6 +49,9 @@ public class QueryProcessor {
 	 */
 	private final boolean isPartial;
 
+	/** The most results kept for each query. */
+	private final int limit;
+
 	/**
 	 * Initializes a new QueryProcessor with a specific inverted index. It sets up
 	 * the stemmer to the English language using the Snowball stemming algorithm,
@@ -60,10 +61,42 @@ public class QueryProcessor {
 	 * @param isPartial boolean if partial search is required
 	 */
 	public QueryProcessor(InvertedIndex index, boolean isPartial) {
+		this(index, isPartial, Analyzer.ENGLISH);
+	}
+
+	/**
+	 * Initializes a new QueryProcessor that stems queries with an analyzer, which
+	 * should be the one the index was built with.
+	 *
+	 * @param index The inverted index to be used for processing search queries.
+	 * @param isPartial boolean if partial search is required
+	 * @param analyzer the analyzer to stem queries with
+	 */
+	public QueryProcessor(InvertedIndex index, boolean isPartial, Analyzer analyzer) {
+		this(index, isPartial, analyzer, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Initializes a new QueryProcessor that keeps only the best results of each
+	 * query.
+	 *
+	 * @param index The inverted index to be used for processing search queries.
+	 * @param isPartial boolean if partial search is required
+	 * @param analyzer the analyzer to stem queries with
+	 * @param limit the most results to keep for each query
+	 * @throws IllegalArgumentException if the limit is less than 1
+	 *
+	 * @see InvertedIndex#search(Set, boolean, int)
+	 */
+	public QueryProcessor(InvertedIndex index, boolean isPartial, Analyzer analyzer, int limit) {
+		if (limit < 1) {
+			throw new IllegalArgumentException("Number of results must be at least 1");
+		}
 		this.searchResults = new TreeMap<>();
-		this.stemmer = new SnowballStemmer(SnowballStemmer.ALGORITHM.ENGLISH);
+		this.analyzer = analyzer;
 		this.index = index;
 		this.isPartial = isPartial;
+		this.limit = limit;
 	}
 
 	/**
@@ -93,14 +126,14 @@ public class QueryProcessor {
 	 * @param line The line of text to be processed as a search query.
 	 */
 	public void processQueryLine(String line) {
-		TreeSet<String> queryWords = FileStemmer.uniqueStems(line, stemmer);
+		TreeSet<String> queryWords = FileStemmer.uniqueStems(line, analyzer);
 		String query = String.join(" ", queryWords);
 
 		if (searchResults.containsKey(query) || query.isEmpty()) {
 			return;
 		}
 
-		List<InvertedIndex.SearchResult> results = index.search(queryWords, isPartial);
+		List<InvertedIndex.SearchResult> results = index.search(queryWords, isPartial, limit);
 		searchResults.put(query, results);
 	}
 
@@ -128,7 +161,7 @@ public class QueryProcessor {
 	 *   found.
 	 */
 	public List<SearchResult> viewSearchResultsForQuery(String query) {
-		TreeSet<String> queryWords = FileStemmer.uniqueStems(query, stemmer);
+		TreeSet<String> queryWords = FileStemmer.uniqueStems(query, analyzer);
 		String stemmedQuery = String.join(" ", queryWords);
 
 		List<InvertedIndex.SearchResult> results = searchResults.get(stemmedQuery);
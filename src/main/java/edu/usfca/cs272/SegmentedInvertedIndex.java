@@ -0,0 +1,860 @@
+package edu.usfca.cs272;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.ObjIntConsumer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A thread-safe inverted index made of immutable {@link CompactInvertedIndex}
+ * segments, similar to a log-structured merge tree. Each file or page is
+ * indexed by a worker into a local index, frozen into its own segment, and
+ * published by replacing the list of segments. Searches read whichever list
+ * of segments was current when they started, so they never wait on indexing.
+ *
+ * <p>
+ * Segments are grouped into tiers by their number of locations. Whenever a
+ * tier collects {@link #MERGE_FACTOR} segments, they are merged into a single
+ * segment of the next tier by a background task on the work queue, keeping the
+ * number of segments searched logarithmic in the number of locations. Merges
+ * are run as a group of their own, which must be drained with
+ * {@link #awaitMerges()} before the work queue is shut down.
+ *
+ * <p>
+ * A location may be spread across several segments, such as when its words are
+ * added a few at a time, so its word count is the sum of its counts in every
+ * segment. Words added one call at a time are buffered and published together
+ * as one segment once enough are buffered or before the index is next read.
+ *
+ * <p>
+ * Removing a location never rewrites a segment. Instead the location is marked
+ * as removed in every segment that has it, hiding it from searches, and is only
+ * left out for good the next time those segments are merged. A segment with
+ * most of its locations removed is rewritten on its own.
+ */
+public class SegmentedInvertedIndex extends ConcurrentInvertedIndex {
+	/** The log4j2 logger. */
+	private static final Logger log = LogManager.getLogger();
+
+	/** The number of segments in a tier that triggers a merge. */
+	public static final int MERGE_FACTOR = 4;
+
+	/**
+	 * The current segments. The list is never modified; publishing, removing from
+	 * or merging segments replaces it with a new list.
+	 */
+	private volatile List<Segment> segments;
+
+	/** The frozen indexes currently being merged, guarded by {@link #lock}. */
+	private final Set<CompactInvertedIndex> merging;
+
+	/** The group of background merges on the work queue. */
+	private final WorkQueue.TaskGroup merges;
+
+	/** The lock object used when replacing the list of segments. */
+	private final Object lock;
+
+	/**
+	 * The words added one call at a time that are not yet in a segment, or null if
+	 * there are none. Only replaced while holding {@link #lock}.
+	 */
+	private volatile InvertedIndex buffered;
+
+	/** The number of positions buffered, guarded by {@link #lock}. */
+	private int bufferedPositions;
+
+	/**
+	 * Initializes an empty segmented index.
+	 *
+	 * @param queue the work queue used to run merges in the background
+	 */
+	public SegmentedInvertedIndex(WorkQueue queue) {
+		this.segments = List.of();
+		this.merging = new HashSet<>();
+		this.merges = queue.group();
+		this.lock = new Object();
+		this.buffered = null;
+		this.bufferedPositions = 0;
+	}
+
+	/**
+	 * A published segment along with the locations removed from it since it was
+	 * built.
+	 *
+	 * @param index the frozen index of the segment
+	 * @param removed the locations of the index that are hidden from searches
+	 *   until the segment is next merged
+	 */
+	private record Segment(CompactInvertedIndex index, Set<String> removed) {
+		/**
+		 * Checks if a location of the segment has not been removed.
+		 *
+		 * @param location the location to check
+		 * @return true if the location is not removed
+		 */
+		boolean isLive(String location) {
+			return !removed.contains(location);
+		}
+
+		/**
+		 * Returns the number of locations of the segment that have not been removed.
+		 *
+		 * @return the number of live locations
+		 */
+		int numLive() {
+			return index.numCounts() - removed.size();
+		}
+
+		/**
+		 * Checks if the segment has a count for a location that was not removed.
+		 *
+		 * @param location the location to check
+		 * @return true if there is a count for the live location
+		 */
+		boolean hasCount(String location) {
+			return isLive(location) && index.hasCount(location);
+		}
+
+		/**
+		 * Returns the word count of a location, or 0 if it was removed.
+		 *
+		 * @param location the location to look up
+		 * @return the word count of the location in this segment
+		 */
+		int getWordCount(String location) {
+			return isLive(location) ? index.getWordCount(location) : 0;
+		}
+
+		/**
+		 * Checks if a word is found in any location that was not removed.
+		 *
+		 * @param word the word to check
+		 * @return true if the word is found in a live location
+		 */
+		boolean hasWord(String word) {
+			return removed.isEmpty() ? index.hasWord(word) : index.hasWordExcept(word, removed);
+		}
+
+		/**
+		 * Returns the postings of a word in the locations that were not removed.
+		 *
+		 * @param word the word to look up
+		 * @return a map of file paths to positions, sorted by path
+		 */
+		TreeMap<String, PositionList> postingsOf(String word) {
+			TreeMap<String, PositionList> postings = index.postingsOf(word);
+			postings.keySet().removeAll(removed);
+			return postings;
+		}
+	}
+
+	/**
+	 * Publishes a segment so it becomes visible to new searches, and schedules
+	 * any merges it makes possible.
+	 *
+	 * @param segment the segment to publish
+	 */
+	public void addSegment(CompactInvertedIndex segment) {
+		if (segment.numCounts() == 0) {
+			return;
+		}
+
+		List<MergeTask> scheduled;
+		synchronized (lock) {
+			scheduled = publish(segment);
+		}
+		submit(scheduled);
+	}
+
+	/**
+	 * Adds a segment to the list of segments. Must be called while holding
+	 * {@link #lock}.
+	 *
+	 * @param segment the segment to publish
+	 * @return the merges made possible, to submit once the lock is released
+	 */
+	private List<MergeTask> publish(CompactInvertedIndex segment) {
+		List<Segment> updated = new ArrayList<>(segments);
+		updated.add(new Segment(segment, Set.of()));
+		segments = Collections.unmodifiableList(updated);
+		return scheduleMerges();
+	}
+
+	/**
+	 * Publishes the buffered words as a segment, if there are any. Must be called
+	 * while holding {@link #lock}.
+	 *
+	 * @return the merges made possible, to submit once the lock is released
+	 */
+	private List<MergeTask> flush() {
+		InvertedIndex pending = buffered;
+		buffered = null;
+		bufferedPositions = 0;
+		if (pending == null || pending.numCounts() == 0) {
+			return List.of();
+		}
+		return publish(pending.freeze());
+	}
+
+	/**
+	 * Returns the current segments, first publishing any buffered words so they
+	 * are visible to the caller.
+	 *
+	 * @return the current segments
+	 */
+	private List<Segment> current() {
+		if (buffered != null) {
+			List<MergeTask> scheduled;
+			synchronized (lock) {
+				scheduled = flush();
+			}
+			submit(scheduled);
+		}
+		return segments;
+	}
+
+	/**
+	 * Submits merges to the background lane of the work queue. Never called while
+	 * holding {@link #lock}, since submitting may wait for room in the queue or
+	 * run the merge on the calling thread.
+	 *
+	 * @param scheduled the merges to submit
+	 */
+	private void submit(List<MergeTask> scheduled) {
+		for (MergeTask merge : scheduled) {
+			merges.execute(merge, WorkQueue.Lane.BACKGROUND);
+		}
+	}
+
+	/**
+	 * Waits for every merge to finish, including the merges they schedule. Must be
+	 * called before the work queue is shut down, so no merge is left behind in
+	 * the queue.
+	 */
+	public void awaitMerges() {
+		merges.finish();
+	}
+
+	/**
+	 * Returns the number of segments currently searched.
+	 *
+	 * @return the number of segments
+	 */
+	public int numSegments() {
+		return current().size();
+	}
+
+	/**
+	 * Returns the tier of a segment, which grows by one each time the number of
+	 * live locations grows by the merge factor.
+	 *
+	 * @param segment the segment to check
+	 * @return the tier of the segment
+	 */
+	private static int tier(Segment segment) {
+		int tier = 0;
+		for (int locations = segment.numLive(); locations >= MERGE_FACTOR; locations /= MERGE_FACTOR) {
+			tier++;
+		}
+		return tier;
+	}
+
+	/**
+	 * Decides on a merge for every tier with enough segments that are not already
+	 * being merged, and on a rewrite of every segment with at least half of its
+	 * locations removed, and marks those segments as being merged. Must be called
+	 * while holding {@link #lock}, but the merges must only be submitted once it
+	 * is released.
+	 *
+	 * @return the merges to submit
+	 *
+	 * @see #submit(List)
+	 */
+	private List<MergeTask> scheduleMerges() {
+		List<MergeTask> scheduled = new ArrayList<>();
+		Map<Integer, List<Segment>> tiers = new TreeMap<>();
+		for (Segment segment : segments) {
+			if (merging.contains(segment.index())) {
+				continue;
+			}
+
+			if (!segment.removed().isEmpty() && segment.removed().size() * 2 >= segment.index().numCounts()) {
+				merging.add(segment.index());
+				scheduled.add(new MergeTask(List.of(segment)));
+				continue;
+			}
+
+			List<Segment> tier = tiers.computeIfAbsent(tier(segment), k -> new ArrayList<>());
+			tier.add(segment);
+			if (tier.size() == MERGE_FACTOR) {
+				for (Segment member : tier) {
+					merging.add(member.index());
+				}
+				scheduled.add(new MergeTask(List.copyOf(tier)));
+				tier.clear();
+			}
+		}
+		return scheduled;
+	}
+
+	/**
+	 * Merges a group of segments, leaving out their removed locations, and
+	 * replaces them with the merged segment. Locations removed from the group
+	 * while merging are marked as removed in the merged segment.
+	 */
+	private class MergeTask implements Runnable {
+		/** The segments to merge, as they were when the merge was scheduled. */
+		private final List<Segment> group;
+
+		/**
+		 * Initializes a merge of the given segments.
+		 *
+		 * @param group the segments to merge
+		 */
+		public MergeTask(List<Segment> group) {
+			this.group = group;
+		}
+
+		@Override
+		public void run() {
+			CompactInvertedIndex merged = null;
+			List<MergeTask> scheduled;
+			try {
+				List<CompactInvertedIndex> indexes = new ArrayList<>(group.size());
+				List<Set<String>> removed = new ArrayList<>(group.size());
+				for (Segment segment : group) {
+					indexes.add(segment.index());
+					removed.add(segment.removed());
+				}
+				merged = CompactInvertedIndex.merge(indexes, removed);
+			}
+			finally {
+				synchronized (lock) {
+					if (merged != null) {
+						replace(merged);
+					}
+					else {
+						log.warn("Unable to merge {} segments; leaving them unmerged.", group.size());
+					}
+					for (Segment segment : group) {
+						merging.remove(segment.index());
+					}
+					scheduled = scheduleMerges();
+				}
+			}
+			submit(scheduled);
+		}
+
+		/**
+		 * Replaces the group with the merged segment. Must be called while holding
+		 * {@link #lock}.
+		 *
+		 * @param merged the merged index of the group
+		 */
+		private void replace(CompactInvertedIndex merged) {
+			Map<CompactInvertedIndex, Set<String>> applied = new HashMap<>();
+			for (Segment segment : group) {
+				applied.put(segment.index(), segment.removed());
+			}
+
+			Set<String> removed = new HashSet<>();
+			List<Segment> updated = new ArrayList<>(segments.size());
+			for (Segment segment : segments) {
+				Set<String> before = applied.get(segment.index());
+				if (before == null) {
+					updated.add(segment);
+					continue;
+				}
+
+				for (String location : segment.removed()) {
+					if (!before.contains(location)) {
+						removed.add(location);
+					}
+				}
+			}
+
+			if (merged.numCounts() > removed.size()) {
+				updated.add(new Segment(merged, Set.copyOf(removed)));
+			}
+			segments = Collections.unmodifiableList(updated);
+		}
+	}
+
+	/**
+	 * Returns the word count of a location across a list of segments.
+	 *
+	 * @param snapshot the segments to check
+	 * @param location the location to look up
+	 * @return the sum of the word counts of the location in every segment
+	 */
+	private static int wordCount(List<Segment> snapshot, String location) {
+		int count = 0;
+		for (Segment segment : snapshot) {
+			count += segment.getWordCount(location);
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the postings of a word across a list of segments.
+	 *
+	 * @param snapshot the segments to check
+	 * @param word the word to look up
+	 * @return a map of file paths to positions, sorted by path
+	 */
+	private static TreeMap<String, PositionList> postingsOf(List<Segment> snapshot, String word) {
+		TreeMap<String, PositionList> postings = new TreeMap<>();
+		for (Segment segment : snapshot) {
+			for (var entry : segment.postingsOf(word).entrySet()) {
+				PositionList existing = postings.putIfAbsent(entry.getKey(), entry.getValue());
+				if (existing != null) {
+					existing.addAll(entry.getValue());
+				}
+			}
+		}
+		return postings;
+	}
+
+	/**
+	 * Returns the sorted words found in a live location across a list of segments.
+	 *
+	 * @param snapshot the segments to check
+	 * @return the sorted words
+	 */
+	private static TreeSet<String> viewWords(List<Segment> snapshot) {
+		TreeSet<String> words = new TreeSet<>();
+		for (Segment segment : snapshot) {
+			if (segment.removed().isEmpty()) {
+				words.addAll(segment.index().viewWords());
+				continue;
+			}
+
+			for (String word : segment.index().viewWords()) {
+				if (!words.contains(word) && segment.hasWord(word)) {
+					words.add(word);
+				}
+			}
+		}
+		return words;
+	}
+
+	/**
+	 * Passes each live location matching a query word across a list of segments
+	 * to the given action.
+	 *
+	 * @param snapshot the segments to search
+	 * @param queryWords the words to search for
+	 * @param isPartial if true, matches every word starting with a query word
+	 * @param action the action to perform on each location and count
+	 */
+	private static void forEachMatch(List<Segment> snapshot, Collection<String> queryWords, boolean isPartial,
+			ObjIntConsumer<String> action) {
+		for (Segment segment : snapshot) {
+			if (segment.removed().isEmpty()) {
+				segment.index().forEachMatch(queryWords, isPartial, action);
+			}
+			else {
+				segment.index().forEachMatch(queryWords, isPartial, (location, count) -> {
+					if (segment.isLive(location)) {
+						action.accept(location, count);
+					}
+				});
+			}
+		}
+	}
+
+	/**
+	 * Searches a list of segments, totals the matches of each location in a map
+	 * holding only the matching locations, and offers them to a ranking.
+	 *
+	 * @param snapshot the segments to search
+	 * @param queryWords the words to search for
+	 * @param isPartial if true, matches every word starting with a query word
+	 * @param ranking the ranking to offer each matching location to
+	 */
+	private static void search(List<Segment> snapshot, Set<String> queryWords, boolean isPartial, Ranking ranking) {
+		Map<String, Integer> matches = new HashMap<>();
+		forEachMatch(snapshot, queryWords, isPartial, (location, count) -> matches.merge(location, count, Integer::sum));
+
+		for (Map.Entry<String, Integer> entry : matches.entrySet()) {
+			ranking.offer(entry.getKey(), entry.getValue(), wordCount(snapshot, entry.getKey()));
+		}
+	}
+
+	/**
+	 * Freezes the other index into a segment and publishes it.
+	 *
+	 * @param other the index to merge into this one
+	 */
+	@Override
+	public void merge(InvertedIndex other) {
+		addSegment(other.freeze());
+	}
+
+	/**
+	 * Merges the given words of another index into a new segment and publishes
+	 * it.
+	 *
+	 * @param other the index to merge from
+	 * @param words the words to merge
+	 * @return the number of positions added for each location
+	 */
+	@Override
+	Map<String, Integer> mergePostings(InvertedIndex other, Iterable<String> words) {
+		InvertedIndex local = new InvertedIndex();
+		Map<String, Integer> added = local.mergePostings(other, words);
+		merge(local);
+		return added;
+	}
+
+	/**
+	 * Indexes the stems of a single location into a new segment and publishes it.
+	 *
+	 * @param stems List of stems to add
+	 * @param location The file path where the words are found
+	 * @param startPosition The position of the first word in the file
+	 */
+	@Override
+	public void addAllStems(ArrayList<String> stems, String location, int startPosition) {
+		InvertedIndex local = new InvertedIndex();
+		local.addWords(stems.toArray(String[]::new), location, startPosition);
+		merge(local);
+	}
+
+	/**
+	 * Reads and stems a file into a local index one chunk at a time, then
+	 * publishes it as a single segment, so a file never adds more than one
+	 * segment.
+	 *
+	 * @param file the file to add
+	 * @param analyzer the analyzer to stem the file with
+	 * @throws IOException if unable to read the file
+	 */
+	@Override
+	public void addFile(Path file, Analyzer analyzer) throws IOException {
+		InvertedIndex local = new InvertedIndex();
+		String location = file.toString();
+		FileStemmer.streamStems(file, CHUNK_SIZE, analyzer, (chunk, start) -> {
+			for (int i = 0; i < chunk.size(); i++) {
+				local.addWord(chunk.get(i), location, start + i);
+			}
+		});
+		merge(local);
+	}
+
+	/**
+	 * Removes a location from the buffered words and marks it as removed in every
+	 * segment that has it. No segment is rewritten while holding the lock; the
+	 * location is left out of a segment for good when it is next merged.
+	 *
+	 * @param location the file path to remove
+	 * @return true if the index had the location
+	 */
+	@Override
+	public boolean removeLocation(String location) {
+		List<MergeTask> scheduled = List.of();
+		boolean isRemoved = false;
+		synchronized (lock) {
+			if (buffered != null) {
+				isRemoved = buffered.removeLocation(location);
+			}
+
+			List<Segment> updated = new ArrayList<>(segments.size());
+			boolean isMarked = false;
+			for (Segment segment : segments) {
+				if (segment.hasCount(location)) {
+					Set<String> removed = new HashSet<>(segment.removed());
+					removed.add(location);
+					segment = new Segment(segment.index(), Set.copyOf(removed));
+					isMarked = true;
+				}
+				updated.add(segment);
+			}
+
+			if (isMarked) {
+				segments = Collections.unmodifiableList(updated);
+				scheduled = scheduleMerges();
+			}
+			isRemoved |= isMarked;
+		}
+		submit(scheduled);
+		return isRemoved;
+	}
+
+	/**
+	 * Adds a word to the buffer of words not yet in a segment. The buffer is
+	 * published as one segment once it holds {@link #CHUNK_SIZE} positions, or
+	 * before the index is next read.
+	 *
+	 * @param word the word to add
+	 * @param location the file path where the word was found
+	 * @param position the position of the word in the file
+	 */
+	@Override
+	public void addWord(String word, String location, int position) {
+		addPosition(word, location, position);
+	}
+
+	/**
+	 * Adds a position to the buffer of words not yet in a segment.
+	 *
+	 * @param word the word to add
+	 * @param location the file path where the word was found
+	 * @param position the position of the word in the file
+	 * @return true if the position was not already buffered
+	 *
+	 * @see #addWord(String, String, int)
+	 */
+	@Override
+	boolean addPosition(String word, String location, int position) {
+		List<MergeTask> scheduled = List.of();
+		boolean isAdded;
+		synchronized (lock) {
+			if (buffered == null) {
+				buffered = new InvertedIndex();
+			}
+			isAdded = buffered.addPosition(word, location, position);
+			if (++bufferedPositions >= CHUNK_SIZE) {
+				scheduled = flush();
+			}
+		}
+		submit(scheduled);
+		return isAdded;
+	}
+
+	/**
+	 * Adds multiple words at sequential positions to the buffer of words not yet
+	 * in a segment.
+	 *
+	 * @param words An array of words to add.
+	 * @param location The file path where the words are found.
+	 * @param startPosition The position of the first word in the file.
+	 *
+	 * @see #addWord(String, String, int)
+	 */
+	@Override
+	public void addWords(String[] words, String location, int startPosition) {
+		List<MergeTask> scheduled = List.of();
+		synchronized (lock) {
+			if (buffered == null) {
+				buffered = new InvertedIndex();
+			}
+			buffered.addWords(words, location, startPosition);
+			bufferedPositions += words.length;
+			if (bufferedPositions >= CHUNK_SIZE) {
+				scheduled = flush();
+			}
+		}
+		submit(scheduled);
+	}
+
+	/**
+	 * Adds a whole document as a new segment.
+	 *
+	 * @param location the file path or URL of the document
+	 * @param stems the stems of the document in order
+	 */
+	@Override
+	public void addDocument(String location, Iterator<String> stems) {
+		InvertedIndex local = new InvertedIndex();
+		local.addDocument(location, stems);
+		if (!local.viewCounts().isEmpty()) {
+			merge(local);
+		}
+	}
+
+	/**
+	 * Adds the positions of grouped words for a location as a new segment.
+	 *
+	 * @param location the file path where the words are found
+	 * @param terms the positions of each word, in sorted order by word
+	 * @return the number of positions added
+	 */
+	@Override
+	int addPostings(String location, Collection<Map.Entry<String, PositionList>> terms) {
+		InvertedIndex local = new InvertedIndex();
+		int added = local.addPostings(location, terms);
+		merge(local);
+		return added;
+	}
+
+	@Override
+	public CompactInvertedIndex freeze() {
+		List<Segment> snapshot = current();
+		if (snapshot.size() == 1 && snapshot.get(0).removed().isEmpty()) {
+			return snapshot.get(0).index();
+		}
+
+		List<CompactInvertedIndex> indexes = new ArrayList<>(snapshot.size());
+		List<Set<String>> removed = new ArrayList<>(snapshot.size());
+		for (Segment segment : snapshot) {
+			indexes.add(segment.index());
+			removed.add(segment.removed());
+		}
+		return CompactInvertedIndex.merge(indexes, removed);
+	}
+
+	@Override
+	TreeMap<String, PositionList> postingsOf(String word) {
+		return postingsOf(current(), word);
+	}
+
+	@Override
+	void forEachMatch(Collection<String> queryWords, boolean isPartial, ObjIntConsumer<String> action) {
+		forEachMatch(current(), queryWords, isPartial, action);
+	}
+
+	@Override
+	public void writeIndex(Path path) throws IOException {
+		if (path != null) {
+			List<Segment> snapshot = current();
+			JsonWriter.writeNestedMap(new IndexView(viewWords(snapshot), word -> postingsOf(snapshot, word)), path);
+		}
+	}
+
+	@Override
+	public void writeCounts(Path path) throws IOException {
+		if (path != null) {
+			JsonWriter.writeObject(viewCounts(), path);
+		}
+	}
+
+	@Override
+	void matches(Set<String> queryWords, boolean isPartial, Ranking ranking) {
+		search(current(), queryWords, isPartial, ranking);
+	}
+
+	@Override
+	public boolean hasWord(String word) {
+		for (Segment segment : current()) {
+			if (segment.hasWord(word)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public boolean hasLocation(String word, String location) {
+		for (Segment segment : current()) {
+			if (segment.isLive(location) && segment.index().hasLocation(word, location)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public boolean hasPosition(String word, String location, Integer position) {
+		for (Segment segment : current()) {
+			if (segment.isLive(location) && segment.index().hasPosition(word, location, position)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public boolean hasCount(String location) {
+		for (Segment segment : current()) {
+			if (segment.hasCount(location)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public int numPositions(String word, String location) {
+		return viewPositions(word, location).size();
+	}
+
+	@Override
+	public int numWords() {
+		return viewWords().size();
+	}
+
+	@Override
+	public int numLocations(String word) {
+		return viewLocations(word).size();
+	}
+
+	@Override
+	public int numCounts() {
+		return viewCounts().size();
+	}
+
+	@Override
+	public Set<String> viewWords() {
+		return Collections.unmodifiableSet(viewWords(current()));
+	}
+
+	@Override
+	public Set<String> viewLocations(String word) {
+		TreeSet<String> locations = new TreeSet<>();
+		for (Segment segment : current()) {
+			for (String location : segment.index().viewLocations(word)) {
+				if (segment.isLive(location)) {
+					locations.add(location);
+				}
+			}
+		}
+		return Collections.unmodifiableSet(locations);
+	}
+
+	@Override
+	public Set<Integer> viewPositions(String word, String location) {
+		PositionList positions = new PositionList();
+		for (Segment segment : current()) {
+			if (segment.isLive(location)) {
+				for (Integer position : segment.index().viewPositions(word, location)) {
+					positions.add(position.intValue());
+				}
+			}
+		}
+		return Collections.unmodifiableSet(positions);
+	}
+
+	@Override
+	public Map<String, Integer> viewCounts() {
+		TreeMap<String, Integer> counts = new TreeMap<>();
+		for (Segment segment : current()) {
+			for (var entry : segment.index().viewCounts().entrySet()) {
+				if (segment.isLive(entry.getKey())) {
+					counts.merge(entry.getKey(), entry.getValue(), Integer::sum);
+				}
+			}
+		}
+		return Collections.unmodifiableMap(counts);
+	}
+
+	@Override
+	public int getWordCount(String path) {
+		return wordCount(current(), path);
+	}
+
+	@Override
+	public String toString() {
+		List<Segment> snapshot = current();
+		StringBuilder builder = new StringBuilder();
+		for (String word : viewWords(snapshot)) {
+			builder.append(word).append(": ");
+			builder.append(postingsOf(snapshot, word).toString());
+			builder.append(System.lineSeparator());
+		}
+		return builder.toString();
+	}
+}
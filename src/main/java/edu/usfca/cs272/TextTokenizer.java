@@ -0,0 +1,70 @@
+package edu.usfca.cs272;
+
+/**
+ * Splits text into the same cleaned words as {@link FileStemmer#parse(String)}
+ * in a single pass, without regular expressions or intermediate strings. Each
+ * word is cleaned, lowercased and written into a reusable buffer as the text is
+ * read, so no string is created unless the caller copies a word.
+ *
+ * @see FileTokenizer
+ * @see WordBuffer
+ */
+public class TextTokenizer {
+	/** The text being split. */
+	private final CharSequence text;
+
+	/** The index in the text of the next character to read. */
+	private int index;
+
+	/** The current word. */
+	private final WordBuffer word;
+
+	/**
+	 * Initializes a tokenizer for some text.
+	 *
+	 * @param text the text to split
+	 */
+	public TextTokenizer(CharSequence text) {
+		this.text = text;
+		this.index = 0;
+		this.word = new WordBuffer();
+	}
+
+	/**
+	 * Returns the next cleaned word of the text. The returned sequence is reused
+	 * and changed by the next call, so it must be copied to be kept.
+	 *
+	 * @return the next word, or null at the end of the text
+	 */
+	public CharSequence next() {
+		word.clear();
+
+		while (index < text.length()) {
+			char c = text.charAt(index++);
+
+			if (c >= 'a' && c <= 'z') {
+				word.appendAscii(c);
+			}
+			else if (c >= 'A' && c <= 'Z') {
+				word.appendAscii((char) (c + ('a' - 'A')));
+			}
+			else {
+				int codePoint = c;
+				if (Character.isHighSurrogate(c) && index < text.length() && Character.isLowSurrogate(text.charAt(index))) {
+					codePoint = Character.toCodePoint(c, text.charAt(index++));
+				}
+
+				if (WordBuffer.isSpace(codePoint)) {
+					if (!word.isEmpty()) {
+						return word.finish();
+					}
+				}
+				else {
+					word.fold(codePoint);
+				}
+			}
+		}
+
+		return word.isEmpty() ? null : word.finish();
+	}
+}
@@ -3,48 +3,400 @@ package edu.usfca.cs272;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ObjIntConsumer;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 /**
- * 
+ * A thread-safe inverted index that partitions its words by hash across a
+ * number of shards, each protected by its own {@link MultiReaderLock}. Writers
+ * adding different words only contend when those words fall in the same shard,
+ * and searches fan out across the shards that may hold matching words. Word
+ * counts are kept in a concurrent map of {@link LongAdder} counters so updating
+ * them never takes a shard lock.
+ *
+ * <p>
+ * Each shard has a frozen {@link CompactInvertedIndex} snapshot tagged with an
+ * optimistic read stamp of the shard lock taken when it was built. A search
+ * uses the snapshot of every shard whose stamp still validates without holding
+ * any lock. Any other shard is searched directly under its read lock, which is
+ * released as soon as its matches are collected, so no lock is held while
+ * scoring and a search never waits for a snapshot to be built. Out of date
+ * snapshots are rebuilt in the background, at most one at a time for each
+ * shard, from copies of a few words at a time taken under short read locks,
+ * and published for later searches. The shard locks prefer writers, so
+ * indexing is never starved by searches or rebuilds.
+ *
+ * <p>
+ * A search scores a location against its word count at the time it is scored.
+ * Positions are counted before they can be matched and only taken off the count
+ * once they can no longer be matched, and a location without a count is left
+ * out, so a location being added while searching is never scored against too
+ * few words, and one being removed is never scored against a missing count. A
+ * location removed and added again while searching may be scored against the
+ * count of its newer version.
+ *
+ * <p>
+ * The index keeps none of the structures of a regular {@link InvertedIndex}
+ * itself, and every method that would use them is overridden to use the shards
+ * instead.
  */
-public class ThreadSafeInvertedIndex extends InvertedIndex {
+public class ThreadSafeInvertedIndex extends ConcurrentInvertedIndex {
+	/** The log4j2 logger. */
 	private static final Logger log = LogManager.getLogger();
+
+	/** The default number of shards to use when not specified. */
+	public static final int DEFAULT_SHARDS = 16;
+
+	/**
+	 * The shards of the index. Each shard holds the postings of the words that
+	 * hash to it, and the number of those positions in each location.
+	 */
+	private final InvertedIndex[] shards;
+
+	/**
+	 * The lock protecting each shard.
+	 */
+	private final MultiReaderLock[] locks;
+
 	/**
-	 * 
+	 * The number of words in each location across all shards.
 	 */
-	private final MultiReaderLock lock;
+	private final ConcurrentHashMap<String, LongAdder> wordCounts;
 
 	/**
-	 * Includes logic of an inverted index for efficient word searching in text
-	 * files. It maps a word to its locations (file paths and positions within those
-	 * files).
+	 * The most recent snapshot of each shard used by searches.
 	 */
+	private final AtomicReferenceArray<Snapshot> snapshots;
 
 	/**
-	 * Initializes a new inverted index with empty structures.
+	 * Whether the snapshot of each shard is being rebuilt, 1 if it is and 0 if
+	 * not.
 	 */
+	private final AtomicIntegerArray rebuilding;
 
+	/**
+	 * Initializes a new inverted index with empty structures and the default
+	 * number of shards.
+	 */
 	public ThreadSafeInvertedIndex() {
-		this.lock = new MultiReaderLock();
+		this(DEFAULT_SHARDS);
+	}
+
+	/**
+	 * Initializes a new inverted index with empty structures and the given number
+	 * of shards.
+	 *
+	 * @param shards the number of shards; must be greater than 0
+	 */
+	public ThreadSafeInvertedIndex(int shards) {
+		if (shards < 1) {
+			throw new IllegalArgumentException("Shard count must be at least 1");
+		}
+
+		this.shards = new InvertedIndex[shards];
+		this.locks = new MultiReaderLock[shards];
+		this.wordCounts = new ConcurrentHashMap<>();
+		this.snapshots = new AtomicReferenceArray<>(shards);
+		this.rebuilding = new AtomicIntegerArray(shards);
+
+		for (int i = 0; i < shards; i++) {
+			this.shards[i] = new InvertedIndex();
+			this.locks[i] = new MultiReaderLock(MultiReaderLock.Policy.WRITER_PREFERRING);
+			this.snapshots.set(i, new Snapshot(this.locks[i].tryOptimisticRead(), this.shards[i].freeze()));
+		}
+	}
+
+	/**
+	 * A frozen copy of a shard and the lock stamp it was taken at.
+	 *
+	 * @param stamp the optimistic read stamp of the shard lock when the copy was
+	 *   taken
+	 * @param index the frozen copy of the shard
+	 */
+	private record Snapshot(long stamp, CompactInvertedIndex index) {
+	}
+
+	/**
+	 * Passes each location of a shard matching a query word to the given action.
+	 * If the last snapshot of the shard is still current it is searched without
+	 * locking, since it is immutable. Otherwise, the shard itself is searched
+	 * under its read lock, which is released before returning, and a new
+	 * snapshot is built in the background.
+	 *
+	 * @param shard the shard to search
+	 * @param queryWords the words to search for
+	 * @param isPartial if true, matches every word starting with a query word
+	 * @param action the action to perform on each location and count
+	 *
+	 * @see #rebuild(int)
+	 */
+	private void forEachMatch(int shard, Collection<String> queryWords, boolean isPartial,
+			ObjIntConsumer<String> action) {
+		Snapshot snapshot = snapshots.get(shard);
+		if (locks[shard].validate(snapshot.stamp())) {
+			snapshot.index().forEachMatch(queryWords, isPartial, action);
+			return;
+		}
+
+		if (rebuilding.compareAndSet(shard, 0, 1)) {
+			Thread.ofVirtual().name("snapshot-" + shard).start(() -> rebuild(shard));
+		}
+
+		locks[shard].readLock().lock();
+		try {
+			shards[shard].forEachMatch(queryWords, isPartial, action);
+		}
+		finally {
+			locks[shard].readLock().unlock();
+		}
+	}
+
+	/**
+	 * Builds and publishes a new snapshot of a shard. The words of the shard are
+	 * copied {@link #CHUNK_SIZE} at a time, each under a short read lock, so
+	 * writers and the searches queued behind them never wait for a whole shard to
+	 * be copied. The copy is abandoned if the shard changes in between, and is
+	 * only frozen and published once no lock is held. Only called from a
+	 * background thread, one at a time for each shard.
+	 *
+	 * @param shard the shard to capture
+	 */
+	private void rebuild(int shard) {
+		try {
+			MultiReaderLock lock = locks[shard];
+			long stamp;
+			ArrayList<String> words;
+			lock.readLock().lock();
+			try {
+				// the stamp cannot change while the read lock is held
+				stamp = lock.tryOptimisticRead();
+				if (snapshots.get(shard).stamp() == stamp) {
+					return;
+				}
+				words = new ArrayList<>(shards[shard].viewWords());
+			}
+			finally {
+				lock.readLock().unlock();
+			}
+
+			Collections.sort(words);
+			InvertedIndex copy = new InvertedIndex();
+			for (int start = 0; start < words.size(); start += CHUNK_SIZE) {
+				Map<String, List<Map.Entry<String, PositionList>>> chunk = new HashMap<>();
+				lock.readLock().lock();
+				try {
+					if (!lock.validate(stamp)) {
+						log.debug("Abandoned snapshot of shard {} changed while copying", shard);
+						return;
+					}
+					for (String word : words.subList(start, Math.min(start + CHUNK_SIZE, words.size()))) {
+						for (var entry : shards[shard].postingsOf(word).entrySet()) {
+							PositionList positions = new PositionList();
+							positions.addAll(entry.getValue());
+							var terms = chunk.computeIfAbsent(entry.getKey(), k -> new ArrayList<>());
+							terms.add(Map.entry(word, positions));
+						}
+					}
+				}
+				finally {
+					lock.readLock().unlock();
+				}
+
+				for (var entry : chunk.entrySet()) {
+					copy.addPostings(entry.getKey(), entry.getValue());
+				}
+			}
+
+			CompactInvertedIndex frozen = copy.freeze();
+			if (lock.validate(stamp)) {
+				snapshots.set(shard, new Snapshot(stamp, frozen));
+				log.debug("Rebuilt snapshot of shard {} at stamp {}", shard, stamp);
+			}
+		}
+		finally {
+			rebuilding.set(shard, 0);
+		}
+	}
+
+	/**
+	 * Returns the shard that holds a word.
+	 *
+	 * @param word the word to look up
+	 * @return the index of the shard for that word
+	 */
+	private int shardOf(String word) {
+		return Math.floorMod(word.hashCode(), shards.length);
+	}
+
+	/**
+	 * Groups words by the shard that holds them.
+	 *
+	 * @param words the words to group
+	 * @return a list of words for each shard
+	 */
+	private List<List<String>> partition(Collection<String> words) {
+		List<List<String>> partitioned = new ArrayList<>(shards.length);
+		for (int i = 0; i < shards.length; i++) {
+			partitioned.add(new ArrayList<>());
+		}
+		for (String word : words) {
+			partitioned.get(shardOf(word)).add(word);
+		}
+		return partitioned;
+	}
+
+	/**
+	 * Acquires the read lock of every shard, always in the same order.
+	 */
+	private void readLockAll() {
+		for (MultiReaderLock lock : locks) {
+			lock.readLock().lock();
+		}
+	}
+
+	/**
+	 * Releases the read lock of every shard.
+	 */
+	private void readUnlockAll() {
+		for (int i = locks.length - 1; i >= 0; i--) {
+			locks[i].readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns every word across all shards in sorted order. The caller must hold
+	 * the read lock of every shard.
+	 *
+	 * @return the sorted words
+	 */
+	private TreeSet<String> allWords() {
+		TreeSet<String> words = new TreeSet<>();
+		for (InvertedIndex shard : shards) {
+			words.addAll(shard.viewWords());
+		}
+		return words;
+	}
+
+	/**
+	 * Returns the counter for a location, creating it if needed. Creating the
+	 * counter before adding postings ensures every location in the shards also
+	 * has a word count.
+	 *
+	 * @param location the location to look up
+	 * @return the counter for the location
+	 */
+	private LongAdder counter(String location) {
+		return wordCounts.computeIfAbsent(location, k -> new LongAdder());
 	}
 
 	// CITE: Tutoring Center
 	@Override
 	public void merge(InvertedIndex other) {
-		lock.writeLock().lock();
+		Map<String, Integer> counts = other.viewCounts();
+		for (String location : counts.keySet()) {
+			counter(location);
+		}
+
+		mergePostings(other, other.viewWords());
+
+		for (var entry : counts.entrySet()) {
+			wordCounts.compute(entry.getKey(), (location, count) -> {
+				long difference = entry.getValue() - count.sum();
+				if (difference > 0) {
+					count.add(difference);
+				}
+				return count;
+			});
+		}
+	}
+
+	/**
+	 * Merges the locations and positions of the given words from another index
+	 * into the shards holding them, locking each shard once, and counts the
+	 * positions added towards the word count of each location.
+	 *
+	 * @param other the index to merge from
+	 * @param words the words to merge
+	 * @return the number of positions added for each location
+	 */
+	@Override
+	Map<String, Integer> mergePostings(InvertedIndex other, Iterable<String> words) {
+		List<String> all = new ArrayList<>();
+		words.forEach(all::add);
+		List<List<String>> partitioned = partition(all);
+
+		Map<String, Integer> merged = new HashMap<>();
+		for (int i = 0; i < shards.length; i++) {
+			if (!partitioned.get(i).isEmpty()) {
+				Map<String, Integer> added;
+				locks[i].writeLock().lock();
+				try {
+					added = shards[i].mergePostings(other, partitioned.get(i));
+				}
+				finally {
+					locks[i].writeLock().unlock();
+				}
+				for (var entry : added.entrySet()) {
+					counter(entry.getKey()).add(entry.getValue());
+					merged.merge(entry.getKey(), entry.getValue(), Integer::sum);
+				}
+			}
+		}
+		return merged;
+	}
+
+	/**
+	 * Returns a compact, read-only copy of this index. The copy does not need
+	 * locking, since it can no longer be modified.
+	 *
+	 * @return a frozen copy of this index
+	 */
+	@Override
+	public CompactInvertedIndex freeze() {
+		readLockAll();
+		try {
+			TreeMap<String, Integer> counts = snapshotCounts();
+			String[] paths = counts.keySet().toArray(String[]::new);
+			int[] totals = counts.values().stream().mapToInt(Integer::intValue).toArray();
+
+			return CompactInvertedIndex.encode(allWords().toArray(String[]::new), paths, totals, word -> {
+				TreeMap<Integer, PositionList> sorted = new TreeMap<>();
+				for (var entry : shards[shardOf(word)].postingsOf(word).entrySet()) {
+					sorted.put(Arrays.binarySearch(paths, entry.getKey()), entry.getValue());
+				}
+				return sorted;
+			});
+		}
+		finally {
+			readUnlockAll();
+		}
+	}
+
+	@Override
+	TreeMap<String, PositionList> postingsOf(String word) {
+		int shard = shardOf(word);
+		locks[shard].readLock().lock();
 		try {
-			super.merge(other);
+			return shards[shard].postingsOf(word);
 		}
 		finally {
-			lock.writeLock().unlock();
+			locks[shard].readLock().unlock();
 		}
 	}
 
@@ -56,12 +408,14 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 	 */
 	@Override
 	public void writeIndex(Path path) throws IOException {
-		lock.readLock().lock();
-		try {
-			super.writeIndex(path);
-		}
-		finally {
-			lock.readLock().unlock();
+		if (path != null) {
+			readLockAll();
+			try {
+				JsonWriter.writeNestedMap(new IndexView(allWords(), word -> shards[shardOf(word)].postingsOf(word)), path);
+			}
+			finally {
+				readUnlockAll();
+			}
 		}
 	}
 
@@ -73,12 +427,8 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 	 */
 	@Override
 	public void writeCounts(Path path) throws IOException {
-		lock.readLock().lock();
-		try {
-			super.writeCounts(path);
-		}
-		finally {
-			lock.readLock().unlock();
+		if (path != null) {
+			JsonWriter.writeObject(snapshotCounts(), path);
 		}
 	}
 
@@ -102,72 +452,48 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 	}
 
 	/**
-	 * Performs an exact search on the inverted index using the given query words.
-	 * It searches for exact matches of the query words within the indexed
-	 * documents. If a word from the query is found, it updates or adds a new
-	 * SearchResult based on whether the file path is already present in the result
-	 * list.
+	 * Finds every location matching the query words and offers it to a ranking.
+	 * An exact search only looks in the shards holding at least one query word,
+	 * while a partial search looks in every shard, since words sharing a prefix
+	 * may be in any of them. The counts of each location are totaled in a map
+	 * holding only the matching locations, and each location is then scored with
+	 * a single lookup of its word count, without holding any lock.
 	 *
-	 * @param queryWords Set of query words to search for exact matches
-	 * @return List of search results, each containing file path, number of
-	 *   occurrences, and relevance score, sorted by relevance score, then number of
-	 *   occurrences, and finally by file path lexicographically.
-	 */
-	@Override
-	public List<SearchResult> exactSearch(Set<String> queryWords) {
-		lock.readLock().lock();
-		try {
-			return super.exactSearch(queryWords);
-		}
-		finally {
-			lock.readLock().unlock();
-		}
-	}
-
-	/**
-	 * Performs a partial search on the inverted index using the given query words.
-	 * This method matches any indexed words that start with any of the provided
-	 * query words. Updates existing search results if they are found in the result
-	 * list or adds new results if not found.
+	 * @param queryWords the words to search for
+	 * @param isPartial if true, matches every word starting with a query word
+	 * @param ranking the ranking to offer each matching location to
 	 *
-	 * @param queryWords Set of query words to search for partial matches
-	 * @return List of search results, each containing file path, number of
-	 *   occurrences, and relevance score, sorted by relevance score, then number of
-	 *   occurrences, and finally by file path lexicographically.
-	 *   System.out.println("Exiting search, now Index: in partialSearch");
-	 *   System.out.println("Index: attempting to acquire read lock for partial
-	 *   search"); System.out.println("Index:acquired read lock for partial
-	 *   search"); System.out.println("Returning super.partialSearch()");
-	 *   System.out.println("Unlocking locks, exiting partialSearch");
+	 * @see #forEachMatch(int, Collection, boolean, ObjIntConsumer)
 	 */
 	@Override
-	public List<SearchResult> partialSearch(Set<String> queryWords) {
-		lock.readLock().lock();
-		try {
-			return super.partialSearch(queryWords);
-		}
-		finally {
-			lock.readLock().unlock();
+	void matches(Set<String> queryWords, boolean isPartial, Ranking ranking) {
+		Map<String, Integer> matches = new HashMap<>();
+		forEachMatch(queryWords, isPartial, (location, count) -> matches.merge(location, count, Integer::sum));
+
+		for (Map.Entry<String, Integer> entry : matches.entrySet()) {
+			int total = getWordCount(entry.getKey());
+			if (total > 0) {
+				ranking.offer(entry.getKey(), entry.getValue(), total);
+			}
 		}
 	}
 
 	/**
-	 * Updates the search results map with new or existing search results based on
-	 * the provided file path and positions. This method checks if a search result
-	 * for a given file path already exists in the lookup map. If it exists, it
-	 * updates the occurrence count; if not, it creates a new SearchResult and adds
-	 * it to the map and the results list.
+	 * Passes each location matching a query word to the given action, searching
+	 * the current snapshot of each shard, or the shard itself under its read lock.
 	 *
-	 * @param lookup The map used for looking up and storing {@link SearchResult}
-	 *   instances by file path.
-	 * @param results The list of search results that might be updated with new
-	 *   SearchResult instances.
-	 * @param files The map of files to positions for a specific word.
+	 * @param queryWords the words to search for
+	 * @param isPartial if true, matches every word starting with a query word
+	 * @param action the action to perform on each location and count
 	 */
 	@Override
-	protected void updateSearchResults(Map<String, SearchResult> lookup, List<SearchResult> results,
-			TreeMap<String, TreeSet<Integer>> files) {
-		super.updateSearchResults(lookup, results, files);
+	void forEachMatch(Collection<String> queryWords, boolean isPartial, ObjIntConsumer<String> action) {
+		List<List<String>> words = isPartial ? null : partition(queryWords);
+		for (int i = 0; i < shards.length; i++) {
+			if (isPartial || !words.get(i).isEmpty()) {
+				forEachMatch(i, isPartial ? queryWords : words.get(i), isPartial, action);
+			}
+		}
 	}
 
 	/**
@@ -178,12 +504,13 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 	 */
 	@Override
 	public boolean hasWord(String word) {
-		lock.readLock().lock();
+		int shard = shardOf(word);
+		locks[shard].readLock().lock();
 		try {
-			return super.hasWord(word);
+			return shards[shard].hasWord(word);
 		}
 		finally {
-			lock.readLock().unlock();
+			locks[shard].readLock().unlock();
 		}
 	}
 
@@ -196,12 +523,13 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 	 */
 	@Override
 	public boolean hasLocation(String word, String location) {
-		lock.readLock().lock();
+		int shard = shardOf(word);
+		locks[shard].readLock().lock();
 		try {
-			return super.hasLocation(word, location);
+			return shards[shard].hasLocation(word, location);
 		}
 		finally {
-			lock.readLock().unlock();
+			locks[shard].readLock().unlock();
 		}
 	}
 
@@ -216,12 +544,13 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 	 */
 	@Override
 	public boolean hasPosition(String word, String location, Integer position) {
-		lock.readLock().lock();
+		int shard = shardOf(word);
+		locks[shard].readLock().lock();
 		try {
-			return super.hasPosition(word, location, position);
+			return shards[shard].hasPosition(word, location, position);
 		}
 		finally {
-			lock.readLock().unlock();
+			locks[shard].readLock().unlock();
 		}
 	}
 
@@ -233,53 +562,162 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 	 */
 	@Override
 	public boolean hasCount(String location) {
-		lock.readLock().lock();
-		try {
-			return super.hasCount(location);
-		}
-		finally {
-			lock.readLock().unlock();
-		}
+		return wordCounts.containsKey(location);
 	}
 
 	/**
-	 * Thread-safe version of addWords that locks once for the entire operation
+	 * Thread-safe version of addWords that locks each shard once for the entire
+	 * operation
 	 *
 	 * @param stems List of stems to add
 	 * @param location The file path where the words are found
 	 * @param startPosition The position of the first word in the file
 	 */
+	@Override
 	public void addAllStems(ArrayList<String> stems, String location, int startPosition) {
-		lock.writeLock().lock();
+		addAll(stems, location, startPosition);
+	}
+
+	/**
+	 * Reads, stems and adds a file to the index with an analyzer. Stems are added
+	 * in chunks of at most {@link #CHUNK_SIZE} as the file is read, so memory use
+	 * does not grow with the size of the file. Searches may see a partly added
+	 * file.
+	 *
+	 * @param file the file to add
+	 * @param analyzer the analyzer to stem the file with
+	 * @throws IOException if unable to read the file
+	 *
+	 * @see FileStemmer#streamStems(Path, int, Analyzer, ObjIntConsumer)
+	 */
+	@Override
+	public void addFile(Path file, Analyzer analyzer) throws IOException {
+		String location = file.toString();
+		FileStemmer.streamStems(file, CHUNK_SIZE, analyzer, (chunk, start) -> addAll(chunk, location, start));
+	}
+
+	/**
+	 * Adds words at sequential positions.
+	 *
+	 * @param words the words to add
+	 * @param location the file path where the words are found
+	 * @param startPosition the position of the first word in the file
+	 *
+	 * @see #addPostings(String, Collection)
+	 */
+	private void addAll(List<String> words, String location, int startPosition) {
+		addPostings(location, group(words.iterator(), startPosition).entrySet());
+	}
+
+	/**
+	 * Adds a whole document from its stems in order, starting at position 1. The
+	 * stems are grouped by word before any lock is taken, and each shard is then
+	 * locked once, so the time spent holding locks depends on the number of
+	 * distinct words rather than the length of the document.
+	 *
+	 * @param location the file path or URL of the document
+	 * @param stems the stems of the document in order
+	 */
+	@Override
+	public void addDocument(String location, Iterator<String> stems) {
+		addPostings(location, group(stems, 1).entrySet());
+	}
+
+	/**
+	 * Adds the positions of grouped words for a location, splitting them by shard
+	 * so each shard is locked only once. Every position is counted before any
+	 * can be matched, and those that were already in the index are taken back off
+	 * the count once every shard is done.
+	 *
+	 * @param location the file path where the words are found
+	 * @param terms the positions of each word, in sorted order by word
+	 * @return the number of positions that were not already in the index
+	 */
+	@Override
+	int addPostings(String location, Collection<Map.Entry<String, PositionList>> terms) {
+		if (terms.isEmpty()) {
+			return 0;
+		}
+
+		List<List<Map.Entry<String, PositionList>>> partitioned = new ArrayList<>(shards.length);
+		for (int i = 0; i < shards.length; i++) {
+			partitioned.add(new ArrayList<>());
+		}
+		for (var entry : terms) {
+			partitioned.get(shardOf(entry.getKey())).add(entry);
+		}
+
+		// count every position before any can be matched, and take back any already there
+		int expected = 0;
+		for (var entry : terms) {
+			expected += entry.getValue().size();
+		}
+		LongAdder count = counter(location);
+		count.add(expected);
+
+		int total = 0;
 		try {
-			int position = startPosition;
-			for (String word : stems) {
-				super.addWord(word, location, position);
-				position++; // Increment position for each word
+			for (int shard = 0; shard < shards.length; shard++) {
+				if (partitioned.get(shard).isEmpty()) {
+					continue;
+				}
+
+				locks[shard].writeLock().lock();
+				try {
+					total += shards[shard].addPostings(location, partitioned.get(shard));
+				}
+				finally {
+					locks[shard].writeLock().unlock();
+				}
 			}
 		}
 		finally {
-			lock.writeLock().unlock();
+			count.add(total - expected);
 		}
+		return total;
 	}
 
 	/**
 	 * Adds a word along with its file location and position within that file to the
 	 * inverted index.
-	 * 
+	 *
 	 * @param word the word to add
 	 * @param location the file path where the word was found
 	 * @param position the position of the word in the file
 	 */
 	@Override
 	public void addWord(String word, String location, int position) {
-		lock.writeLock().lock();
+		addPosition(word, location, position);
+	}
+
+	/**
+	 * Adds a position for a word and location to the shard holding the word,
+	 * counting it towards the word count of the location if it is new. The
+	 * position is counted before it can be matched, so a search never finds more
+	 * matches in a location than its word count.
+	 *
+	 * @param word the word to add
+	 * @param location the file path where the word was found
+	 * @param position the position of the word in the file
+	 * @return true if the position was not already in the index
+	 */
+	@Override
+	boolean addPosition(String word, String location, int position) {
+		LongAdder count = counter(location);
+		count.increment();
+		int shard = shardOf(word);
+		boolean isAdded = false;
+		locks[shard].writeLock().lock();
 		try {
-			super.addWord(word, location, position);
+			isAdded = shards[shard].addPosition(word, location, position);
 		}
 		finally {
-			lock.writeLock().unlock();
+			locks[shard].writeLock().unlock();
+			if (!isAdded) {
+				count.decrement();
+			}
 		}
+		return isAdded;
 	}
 
 	/**
@@ -292,13 +730,29 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 	 */
 	@Override
 	public void addWords(String[] words, String location, int startPosition) {
-		lock.writeLock().lock();
-		try {
-			super.addWords(words, location, startPosition);
-		}
-		finally {
-			lock.writeLock().unlock();
+		addAll(Arrays.asList(words), location, startPosition);
+	}
+
+	/**
+	 * Removes a location from every shard, and then its word count.
+	 *
+	 * @param location the file path to remove
+	 * @return true if the index had any positions or a count for the location
+	 */
+	@Override
+	public boolean removeLocation(String location) {
+		boolean isRemoved = false;
+		for (int shard = 0; shard < shards.length; shard++) {
+			locks[shard].writeLock().lock();
+			try {
+				isRemoved |= shards[shard].removeLocation(location);
+			}
+			finally {
+				locks[shard].writeLock().unlock();
+			}
 		}
+
+		return wordCounts.remove(location) != null || isRemoved;
 	}
 
 	/**
@@ -311,12 +765,13 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 	 */
 	@Override
 	public int numPositions(String word, String location) {
-		lock.readLock().lock();
+		int shard = shardOf(word);
+		locks[shard].readLock().lock();
 		try {
-			return super.numPositions(word, location);
+			return shards[shard].numPositions(word, location);
 		}
 		finally {
-			lock.readLock().unlock();
+			locks[shard].readLock().unlock();
 		}
 	}
 
@@ -327,13 +782,17 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 	 */
 	@Override
 	public int numWords() {
-		lock.readLock().lock();
-		try {
-			return super.numWords();
-		}
-		finally {
-			lock.readLock().unlock();
+		int words = 0;
+		for (int i = 0; i < shards.length; i++) {
+			locks[i].readLock().lock();
+			try {
+				words += shards[i].numWords();
+			}
+			finally {
+				locks[i].readLock().unlock();
+			}
 		}
+		return words;
 	}
 
 	/**
@@ -344,44 +803,39 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 	 */
 	@Override
 	public int numLocations(String word) {
-		lock.readLock().lock();
+		int shard = shardOf(word);
+		locks[shard].readLock().lock();
 		try {
-			return super.numLocations(word);
+			return shards[shard].numLocations(word);
 		}
 		finally {
-			lock.readLock().unlock();
+			locks[shard].readLock().unlock();
 		}
 	}
 
 	/**
 	 * returns the wordCounts map
-	 * 
+	 *
 	 * @return map containing words
 	 */
 	@Override
 	public int numCounts() {
-		lock.readLock().lock();
-		try {
-			return super.numCounts();
-		}
-		finally {
-			lock.readLock().unlock();
-		}
+		return wordCounts.size();
 	}
 
 	/**
-	 * Returns an unmodifiable view of the words in the inverted index.
+	 * Returns an unmodifiable snapshot of the words in the inverted index.
 	 *
 	 * @return an unmodifiable set of the index keys (words).
 	 */
 	@Override
 	public Set<String> viewWords() {
-		lock.readLock().lock();
+		readLockAll();
 		try {
-			return super.viewWords();
+			return Collections.unmodifiableSet(allWords());
 		}
 		finally {
-			lock.readLock().unlock();
+			readUnlockAll();
 		}
 	}
 
@@ -395,12 +849,13 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 	 */
 	@Override
 	public Set<String> viewLocations(String word) {
-		lock.readLock().lock();
+		int shard = shardOf(word);
+		locks[shard].readLock().lock();
 		try {
-			return super.viewLocations(word);
+			return shards[shard].viewLocations(word);
 		}
 		finally {
-			lock.readLock().unlock();
+			locks[shard].readLock().unlock();
 		}
 	}
 
@@ -414,29 +869,37 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 	 */
 	@Override
 	public Set<Integer> viewPositions(String word, String location) {
-		lock.readLock().lock();
+		int shard = shardOf(word);
+		locks[shard].readLock().lock();
 		try {
-			return super.viewPositions(word, location);
+			return shards[shard].viewPositions(word, location);
 		}
 		finally {
-			lock.readLock().unlock();
+			locks[shard].readLock().unlock();
 		}
 	}
 
 	/**
-	 * Returns an unmodifiable view of the counts in the word counts map.
+	 * Returns an unmodifiable snapshot of the counts in the word counts map.
 	 *
 	 * @return an unmodifiable view of the word counts map.
 	 */
 	@Override
 	public Map<String, Integer> viewCounts() {
-		lock.readLock().lock();
-		try {
-			return super.viewCounts();
-		}
-		finally {
-			lock.readLock().unlock();
+		return Collections.unmodifiableMap(snapshotCounts());
+	}
+
+	/**
+	 * Copies the current word counts into a sorted map.
+	 *
+	 * @return the word counts sorted by location
+	 */
+	private TreeMap<String, Integer> snapshotCounts() {
+		TreeMap<String, Integer> counts = new TreeMap<>();
+		for (var entry : wordCounts.entrySet()) {
+			counts.put(entry.getKey(), entry.getValue().intValue());
 		}
+		return counts;
 	}
 
 	/**
@@ -447,23 +910,24 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 	 */
 	@Override
 	public int getWordCount(String path) {
-		lock.readLock().lock();
-		try {
-			return super.getWordCount(path);
-		}
-		finally {
-			lock.readLock().unlock();
-		}
+		LongAdder count = wordCounts.get(path);
+		return count == null ? 0 : count.intValue();
 	}
 
 	@Override
 	public String toString() {
-		lock.readLock().lock();
+		readLockAll();
 		try {
-			return super.toString();
+			StringBuilder builder = new StringBuilder();
+			for (String word : allWords()) {
+				builder.append(word).append(": ");
+				builder.append(shards[shardOf(word)].postingsOf(word).toString());
+				builder.append(System.lineSeparator());
+			}
+			return builder.toString();
 		}
 		finally {
-			lock.readLock().unlock();
+			readUnlockAll();
 		}
 	}
 }
@@ -5,18 +5,20 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import org.apache.logging.log4j.LogManager;
 
 import edu.usfca.cs272.InvertedIndex.SearchResult;
-import opennlp.tools.stemmer.Stemmer;
-import opennlp.tools.stemmer.snowball.SnowballStemmer;
 
 /**
  * 
@@ -37,19 +39,22 @@ public class ThreadSafeQueryProcessor {
 	 * structure that maps words to their locations in documents, allowing for
 	 * efficient search and retrieval operations.
 	 */
-	private final ThreadSafeInvertedIndex index;
+	private final InvertedIndex index;
 
 	/**
 	 * The boolean used to help determine which search is to be done.
 	 */
 	private final boolean isPartial;
 
+	/** The most results kept for each query. */
+	private final int limit;
+
 	/**
-	 * The stemmer used for reducing words to their base or root form. This aids in
-	 * normalizing the search queries to increase the effectiveness of matching
+	 * The analyzer used for reducing words to their base or root form. This aids
+	 * in normalizing the search queries to increase the effectiveness of matching
 	 * terms in the inverted index.
 	 */
-	private final Stemmer stemmer;
+	private final Analyzer analyzer;
 
 	private WorkQueue Queue;
 
@@ -64,19 +69,58 @@ public class ThreadSafeQueryProcessor {
 	 * the stemmer to the English language using the Snowball stemming algorithm,
 	 * which is effective for processing and normalizing English text.
 	 *
-	 * @param index The inverted index to be used for processing search queries.
+	 * @param index The inverted index to be used for processing search queries;
+	 *   must be safe to search from multiple threads, such as a
+	 *   {@link ThreadSafeInvertedIndex} or {@link CompactInvertedIndex}.
 	 * @param isPartial boolean if partial search is requireWo
 	 * @param Queue The workqueue
 	 */
-	public ThreadSafeQueryProcessor(ThreadSafeInvertedIndex index, boolean isPartial, WorkQueue Queue) {
+	public ThreadSafeQueryProcessor(InvertedIndex index, boolean isPartial, WorkQueue Queue) {
+		this(index, isPartial, Queue, Analyzer.ENGLISH);
+	}
+
+	/**
+	 * Initializes a new QueryProcessor that stems queries with an analyzer, which
+	 * should be the one the index was built with.
+	 *
+	 * @param index The inverted index to be used for processing search queries;
+	 *   must be safe to search from multiple threads.
+	 * @param isPartial boolean if partial search is required
+	 * @param Queue The workqueue
+	 * @param analyzer the analyzer to stem queries with
+	 */
+	public ThreadSafeQueryProcessor(InvertedIndex index, boolean isPartial, WorkQueue Queue, Analyzer analyzer) {
+		this(index, isPartial, Queue, analyzer, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Initializes a new QueryProcessor that keeps only the best results of each
+	 * query.
+	 *
+	 * @param index The inverted index to be used for processing search queries;
+	 *   must be safe to search from multiple threads.
+	 * @param isPartial boolean if partial search is required
+	 * @param Queue The workqueue
+	 * @param analyzer the analyzer to stem queries with
+	 * @param limit the most results to keep for each query
+	 * @throws IllegalArgumentException if the limit is less than 1
+	 *
+	 * @see InvertedIndex#search(Set, boolean, int)
+	 */
+	public ThreadSafeQueryProcessor(InvertedIndex index, boolean isPartial, WorkQueue Queue, Analyzer analyzer,
+			int limit) {
 		if (Queue == null) {
 			throw new IllegalArgumentException("WorkQueue cannot be null\n");
 		}
+		if (limit < 1) {
+			throw new IllegalArgumentException("Number of results must be at least 1");
+		}
 		this.index = index;
 		this.isPartial = isPartial;
 		this.Queue = Queue;
 		this.searchResults = new TreeMap<>();
-		this.stemmer = new SnowballStemmer(SnowballStemmer.ALGORITHM.ENGLISH);
+		this.analyzer = analyzer;
+		this.limit = limit;
 	}
 
 	/**
@@ -89,27 +133,87 @@ public class ThreadSafeQueryProcessor {
 	 * @throws IOException if an error occurs reading from the file
 	 */
 	public void processQueryFile(Path queryPath) throws IOException {
+		WorkQueue.TaskGroup tasks = Queue.group();
 		try (BufferedReader reader = Files.newBufferedReader(queryPath, StandardCharsets.UTF_8)) {
 			String line;
 			// int i = 0;
 			while ((line = reader.readLine()) != null) {
-				Queue.execute(new QueryTask(line));
+				tasks.execute(new QueryTask(line), WorkQueue.Lane.INTERACTIVE);
 			}
 		}
-		Queue.finish();
+		finally {
+			tasks.finish();
+		}
 	}
 
 	/**
-	 * Processes a single line of query text, performs a search using the inverted
-	 * index, and stores the results. This method uses a stemmer to process words,
-	 * forms a query string from the stemmed words, and avoids redundant searches by
-	 * checking if the query has already been processed.
+	 * Starts reading and stemming the queries of a file on a work queue, so they
+	 * can be parsed while the index is still being built. Empty queries and
+	 * queries with the same stems as an earlier one are left out.
 	 *
-	 * @param line The line of text to be processed as a search query.
+	 * @param queryPath the path to the query file
+	 * @param queue the work queue to parse the queries with
+	 * @param analyzer the analyzer to stem queries with, which should be the one
+	 *   the index is built with
+	 * @return a future of the stems of each query, in the order they first appear,
+	 *   completed exceptionally if unable to read the file
+	 *
+	 * @see #processQueries(CompletableFuture)
 	 */
-	// CITE: Param
-	public void processQueryLine(String line) {
-		TreeSet<String> queryWords = FileStemmer.uniqueStems(line, stemmer);
+	public static CompletableFuture<Collection<TreeSet<String>>> parseQueryFile(Path queryPath, WorkQueue queue,
+			Analyzer analyzer) {
+		return queue.submit(() -> {
+			Map<String, TreeSet<String>> queries = new LinkedHashMap<>();
+			try (BufferedReader reader = Files.newBufferedReader(queryPath, StandardCharsets.UTF_8)) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					TreeSet<String> queryWords = FileStemmer.uniqueStems(line, analyzer);
+					if (!queryWords.isEmpty()) {
+						queries.putIfAbsent(String.join(" ", queryWords), queryWords);
+					}
+				}
+			}
+			return queries.values();
+		});
+	}
+
+	/**
+	 * Searches the queries of a file once they are parsed, waiting for the
+	 * parsing to finish if it has not already.
+	 *
+	 * @param parsed the future of the queries from
+	 *   {@link #parseQueryFile(Path, WorkQueue, Analyzer)}
+	 * @throws IOException if an error occurred reading the query file
+	 */
+	public void processQueries(CompletableFuture<? extends Collection<TreeSet<String>>> parsed) throws IOException {
+		Collection<TreeSet<String>> queries;
+		try {
+			queries = parsed.join();
+		}
+		catch (CompletionException e) {
+			if (e.getCause() instanceof IOException cause) {
+				throw cause;
+			}
+			throw e;
+		}
+
+		WorkQueue.TaskGroup tasks = Queue.group();
+		try {
+			for (TreeSet<String> queryWords : queries) {
+				tasks.execute(() -> processQuery(queryWords), WorkQueue.Lane.INTERACTIVE);
+			}
+		}
+		finally {
+			tasks.finish();
+		}
+	}
+
+	/**
+	 * Searches for the stems of a query unless they were already searched for.
+	 *
+	 * @param queryWords the stems of the query
+	 */
+	private void processQuery(TreeSet<String> queryWords) {
 		String query = String.join(" ", queryWords);
 
 		synchronized (searchResults) {
@@ -118,13 +222,26 @@ public class ThreadSafeQueryProcessor {
 			}
 		}
 
-		List<ThreadSafeInvertedIndex.SearchResult> results = index.search(queryWords, isPartial);
+		List<ThreadSafeInvertedIndex.SearchResult> results = index.search(queryWords, isPartial, limit);
 
 		synchronized (searchResults) {
 			searchResults.put(query, results);
 		}
 	}
 
+	/**
+	 * Processes a single line of query text, performs a search using the inverted
+	 * index, and stores the results. This method uses a stemmer to process words,
+	 * forms a query string from the stemmed words, and avoids redundant searches by
+	 * checking if the query has already been processed.
+	 *
+	 * @param line The line of text to be processed as a search query.
+	 */
+	// CITE: Param
+	public void processQueryLine(String line) {
+		processQuery(FileStemmer.uniqueStems(line, analyzer));
+	}
+
 	/**
 	 * Writes the stored search results to a file in JSON format. This method
 	 * utilizes the {@link JsonWriter} class to output the search results, where
@@ -151,7 +268,7 @@ public class ThreadSafeQueryProcessor {
 	 *   found.
 	 */
 	public List<SearchResult> viewSearchResultsForQuery(String query) {
-		TreeSet<String> stemmedWords = FileStemmer.uniqueStems(query, stemmer);
+		TreeSet<String> stemmedWords = FileStemmer.uniqueStems(query, analyzer);
 		String processedQuery = String.join(" ", stemmedWords);
 
 		synchronized (searchResults) {
@@ -203,8 +320,7 @@ public class ThreadSafeQueryProcessor {
 				if (queryLine == null || queryLine.isEmpty()) {
 					return;
 				}
-				Stemmer localStemmer = new SnowballStemmer(SnowballStemmer.ALGORITHM.ENGLISH);
-				TreeSet<String> queryWords = FileStemmer.uniqueStems(queryLine, localStemmer);
+				TreeSet<String> queryWords = FileStemmer.uniqueStems(queryLine, analyzer);
 				
 				String query = String.join(" ", queryWords);
 				synchronized (searchResults) {
@@ -212,7 +328,7 @@ public class ThreadSafeQueryProcessor {
 						return;
 					}
 				}
-				List<ThreadSafeInvertedIndex.SearchResult> results = index.search(queryWords, isPartial);
+				List<ThreadSafeInvertedIndex.SearchResult> results = index.search(queryWords, isPartial, limit);
 
 				synchronized (searchResults) {
 					searchResults.put(query, results);
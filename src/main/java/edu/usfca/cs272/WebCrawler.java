@@ -28,7 +28,10 @@ public class WebCrawler {
 	/** The visited links. */
 	private final HashSet<URI> visited;
 
-	private final WorkQueue queue;
+	private final WorkQueue.TaskGroup tasks;
+
+	/** The analyzer to stem pages with. */
+	private final Analyzer analyzer;
 
 	private int crawls;
 
@@ -39,26 +42,41 @@ public class WebCrawler {
 	 *
 	 * @param index the index to store crawled content
 	 */
-	public WebCrawler(ThreadSafeInvertedIndex index, WorkQueue queue, int crawls) {
+	public WebCrawler(ConcurrentInvertedIndex index, WorkQueue queue, int crawls) {
+		this(index, queue, crawls, Analyzer.ENGLISH);
+	}
+
+	/**
+	 * Initialize the web crawler with an analyzer. Each page is stemmed with the
+	 * analyzer for the language declared by the page, if the analyzer is
+	 * multilingual.
+	 *
+	 * @param index the index to store crawled content
+	 * @param queue the work queue to crawl with
+	 * @param crawls the most pages to crawl
+	 * @param analyzer the analyzer to stem pages with
+	 *
+	 * @see Analyzer#forDocument(String)
+	 */
+	public WebCrawler(ConcurrentInvertedIndex index, WorkQueue queue, int crawls, Analyzer analyzer) {
 		this.index = index;
 		this.visited = new HashSet<>();
-		this.queue = queue;
+		this.tasks = queue.group();
 		this.crawls = crawls;
+		this.analyzer = analyzer;
 	}
 
 	/**
-	 * Scrape a page and add to the InvertedIndex.
+	 * Scrape a page and add to the InvertedIndex. The stems of the page are added
+	 * together, so the index is locked once for the page instead of once per word.
 	 * 
 	 * @param html the html of the page to add
 	 * @param uri the cleaned string to add as a location
 	 * @param invIndex the InvertedIndex to add to
+	 * @param analyzer the analyzer to stem the page with
 	 */
-	private static void scrapePage(String html, String uri, InvertedIndex invIndex) {
-		int position = 1;
-		for (String word : FileStemmer.listStems(html)) {
-			invIndex.addWord(word, uri, position);
-			position++;
-		}
+	private static void scrapePage(String html, String uri, InvertedIndex invIndex, Analyzer analyzer) {
+		invIndex.addDocument(uri, FileStemmer.listStems(html, analyzer).iterator());
 	}
 
 	/**
@@ -70,8 +88,8 @@ public class WebCrawler {
 	public void crawl(String seed) throws URISyntaxException {
 		URI uri = LinkFinder.toUri(seed);
 		visited.add(uri);
-		queue.execute(new CrawlTask(uri));
-		queue.finish();
+		tasks.executeBlocking(new CrawlTask(uri), WorkQueue.Lane.BACKGROUND);
+		tasks.finish();
 	}
 
 	/**
@@ -87,6 +105,10 @@ public class WebCrawler {
 		crawls--;
 	}
 
+	/**
+	 * Fetches a page and then processes it. Submitted as a blocking task, since
+	 * most of its time is spent waiting on the network.
+	 */
 	private class CrawlTask implements Runnable {
 		private final URI uri;
 
@@ -97,29 +119,45 @@ public class WebCrawler {
 		@Override
 		public void run() {
 			String html = HtmlFetcher.fetch(uri, 3);
-			if (html != null) {
-				html = HtmlCleaner.stripBlockElements(html);
+			if (html == null) {
+				return;
+			}
 
-				for (URI link : LinkFinder.listUris(uri, html)) {
-					if (crawls <= 1) {
-						break;
-					}
-					synchronized (visited) {
-						if (visited.contains(link)) {
-							continue;
-						}
-						visited.add(link);
+			// leave parsing and stemming to the workers when fetched on a virtual thread
+			if (Thread.currentThread().isVirtual()) {
+				tasks.execute(() -> process(html), WorkQueue.Lane.BACKGROUND);
+			}
+			else {
+				process(html);
+			}
+		}
+
+		/**
+		 * Queues the unvisited links of a fetched page and adds its words to the
+		 * index.
+		 *
+		 * @param html the fetched page
+		 */
+		private void process(String html) {
+			Analyzer pageAnalyzer = analyzer.forDocument(HtmlCleaner.findLanguage(html));
+			html = HtmlCleaner.stripBlockElements(html);
+
+			for (URI link : LinkFinder.listUris(uri, html)) {
+				if (crawls <= 1) {
+					break;
+				}
+				synchronized (visited) {
+					if (visited.contains(link)) {
+						continue;
 					}
-					decrementCrawls();
-					queue.execute(new CrawlTask(link));
+					visited.add(link);
 				}
-
-				InvertedIndex local = new InvertedIndex();
-				String cleaned = HtmlCleaner.stripEntities(HtmlCleaner.stripTags(html));
-				scrapePage(cleaned, LinkFinder.clean(uri).toString(), local);
-				index.merge(local);
-
+				decrementCrawls();
+				tasks.executeBlocking(new CrawlTask(link), WorkQueue.Lane.BACKGROUND);
 			}
+
+			String cleaned = HtmlCleaner.stripEntities(HtmlCleaner.stripTags(html));
+			scrapePage(cleaned, LinkFinder.clean(uri).toString(), index, pageAnalyzer);
 		}
 	}
 }
@@ -0,0 +1,193 @@
+package edu.usfca.cs272;
+
+import java.nio.CharBuffer;
+import java.text.Normalizer;
+import java.util.Arrays;
+
+/**
+ * Builds a single cleaned word one character at a time for the tokenizers,
+ * reusing the same buffer for every word. Characters are cleaned the same way
+ * as {@link FileStemmer#clean(String)}: each is decomposed, and only the
+ * alphabetic characters of its decomposition are kept, in lowercase.
+ *
+ * <p>
+ * The cleaned form of every character before {@link #TABLE_SIZE}, which covers
+ * ASCII and the common accented Latin letters, is looked up in a table built
+ * once with {@link Normalizer}. Other characters are decomposed as they are
+ * found.
+ *
+ * @see FileTokenizer
+ * @see TextTokenizer
+ */
+final class WordBuffer {
+	/** The number of characters whose cleaned forms are looked up in a table. */
+	static final int TABLE_SIZE = 0x250;
+
+	/**
+	 * The capital Greek letter sigma, whose lowercase form depends on where it is
+	 * within a word.
+	 */
+	private static final int CAPITAL_SIGMA = 0x03A3;
+
+	/** The cleaned form of each character before {@link #TABLE_SIZE}. */
+	private static final char[][] TABLE = new char[TABLE_SIZE][];
+
+	static {
+		for (int codePoint = 0; codePoint < TABLE_SIZE; codePoint++) {
+			WordBuffer buffer = new WordBuffer();
+			buffer.decompose(codePoint);
+			TABLE[codePoint] = Arrays.copyOf(buffer.chars, buffer.length);
+		}
+	}
+
+	/** The characters of the current word. */
+	private char[] chars;
+
+	/** The number of characters in the current word. */
+	private int length;
+
+	/** Whether the current word has a capital sigma left to lowercase. */
+	private boolean hasSigma;
+
+	/** The view of the current word returned to callers. */
+	private CharBuffer word;
+
+	/**
+	 * Initializes an empty word.
+	 */
+	WordBuffer() {
+		this.chars = new char[64];
+		this.word = CharBuffer.wrap(chars);
+	}
+
+	/**
+	 * Starts a new, empty word.
+	 */
+	void clear() {
+		length = 0;
+		hasSigma = false;
+	}
+
+	/**
+	 * Checks if the current word has no characters.
+	 *
+	 * @return true if the current word is empty
+	 */
+	boolean isEmpty() {
+		return length == 0;
+	}
+
+	/**
+	 * Adds a lowercase ASCII letter to the current word.
+	 *
+	 * @param c the letter to add
+	 */
+	void appendAscii(char c) {
+		if (length == chars.length) {
+			grow();
+		}
+
+		chars[length++] = c;
+	}
+
+	/**
+	 * Adds the alphabetic characters of the decomposed form of a character to the
+	 * current word in lowercase, dropping any diacritical marks.
+	 *
+	 * @param codePoint the character to add
+	 */
+	void fold(int codePoint) {
+		if (codePoint >= TABLE_SIZE) {
+			decompose(codePoint);
+			return;
+		}
+
+		char[] folded = TABLE[codePoint];
+		if (length + folded.length > chars.length) {
+			grow();
+		}
+
+		System.arraycopy(folded, 0, chars, length, folded.length);
+		length += folded.length;
+	}
+
+	/**
+	 * Adds the alphabetic characters of the decomposed form of a character to the
+	 * current word using {@link Normalizer}.
+	 *
+	 * @param codePoint the character to add
+	 */
+	private void decompose(int codePoint) {
+		if (!Character.isAlphabetic(codePoint)) {
+			// marks and symbols never decompose into alphabetic characters
+			return;
+		}
+
+		String decomposed = Normalizer.normalize(Character.toString(codePoint), Normalizer.Form.NFD);
+		for (int i = 0; i < decomposed.length(); i = decomposed.offsetByCodePoints(i, 1)) {
+			int part = decomposed.codePointAt(i);
+			if (part == CAPITAL_SIGMA) {
+				hasSigma = true;
+				append(part);
+			}
+			else if (Character.isAlphabetic(part)) {
+				append(Character.toLowerCase(part));
+			}
+		}
+	}
+
+	/**
+	 * Adds a character to the current word.
+	 *
+	 * @param codePoint the character to add
+	 */
+	private void append(int codePoint) {
+		if (length + 2 > chars.length) {
+			grow();
+		}
+
+		length += Character.toChars(codePoint, chars, length);
+	}
+
+	/**
+	 * Doubles the room for characters in the current word.
+	 */
+	private void grow() {
+		chars = Arrays.copyOf(chars, chars.length * 2);
+		word = CharBuffer.wrap(chars);
+	}
+
+	/**
+	 * Finishes the current word. Any capital sigma is lowercased here by
+	 * {@link String#toLowerCase()}, since its form depends on the rest of the word.
+	 *
+	 * @return the current word, which is changed by the next word built
+	 */
+	CharSequence finish() {
+		if (hasSigma) {
+			new String(chars, 0, length).toLowerCase().getChars(0, length, chars, 0);
+		}
+
+		word.clear();
+		word.limit(length);
+		return word;
+	}
+
+	/**
+	 * Checks if a character is whitespace as matched by
+	 * {@link FileStemmer#SPLIT_REGEX}.
+	 *
+	 * @param codePoint the character to check
+	 * @return true if the character is whitespace
+	 */
+	static boolean isSpace(int codePoint) {
+		if (codePoint < 0x80) {
+			return codePoint == ' ' || (codePoint >= '\t' && codePoint <= '\r');
+		}
+
+		return switch (Character.getType(codePoint)) {
+			case Character.SPACE_SEPARATOR, Character.LINE_SEPARATOR, Character.PARAGRAPH_SEPARATOR -> true;
+			default -> codePoint == 0x85;
+		};
+	}
+}
@@ -0,0 +1,78 @@
+package edu.usfca.cs272;
+
+/**
+ * A hash key for a word that compares by its characters, so a word still held
+ * in a reusable buffer can be looked up without copying it into a string.
+ * Keys stored in a map hold a string of their own, while lookups use the probe
+ * of the current thread, which only refers to the word being looked up until
+ * the next lookup on that thread.
+ *
+ * <p>
+ * The hash code is the same as that of a string with the same characters, but
+ * a key is never equal to a string, only to another key.
+ *
+ * @see CachingStemmer
+ * @see WordBuffer
+ */
+final class WordKey {
+	/** The probe of each thread, reused for every lookup on that thread. */
+	private static final ThreadLocal<WordKey> PROBES = ThreadLocal.withInitial(WordKey::new);
+
+	/** The characters of the word. */
+	private CharSequence word;
+
+	/** The hash code of the word. */
+	private int hash;
+
+	/**
+	 * Initializes an empty key, only used for probes.
+	 */
+	private WordKey() {
+		this.word = "";
+		this.hash = 0;
+	}
+
+	/**
+	 * Initializes a key to store in a map.
+	 *
+	 * @param word the word of the key
+	 */
+	WordKey(String word) {
+		this.word = word;
+		this.hash = word.hashCode();
+	}
+
+	/**
+	 * Returns the probe of the current thread set to a word. The probe must only
+	 * be used to look up a key, never stored, since it is changed by the next
+	 * call on the same thread.
+	 *
+	 * @param word the word to look up
+	 * @return the probe for the word
+	 */
+	static WordKey probe(CharSequence word) {
+		WordKey probe = PROBES.get();
+		int hash = 0;
+		for (int i = 0; i < word.length(); i++) {
+			hash = 31 * hash + word.charAt(i);
+		}
+		probe.word = word;
+		probe.hash = hash;
+		return probe;
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		return other instanceof WordKey key && hash == key.hash && CharSequence.compare(word, key.word) == 0;
+	}
+
+	@Override
+	public String toString() {
+		return word.toString();
+	}
+}
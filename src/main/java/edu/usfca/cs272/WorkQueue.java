@@ -1,6 +1,18 @@
 package edu.usfca.cs272;
 
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
@@ -11,17 +23,191 @@ import org.apache.logging.log4j.Logger;
  * Brian Goetz. It is up to the user of this class to keep track of whether
  * there is any pending work remaining.
  *
+ * <p>
+ * By default all workers take tasks from one shared queue. With the
+ * {@link Scheduler#STEALING} scheduler each worker instead has its own deque.
+ * Tasks submitted by a worker go to that worker's deque, and tasks submitted
+ * from elsewhere go to a shared injection queue. Idle workers steal from their
+ * peers, and submitting a task wakes at most one idle worker.
+ *
+ * <p>
+ * Tasks that spend most of their time blocked on I/O may be submitted with
+ * {@link #executeBlocking(Runnable)}. When virtual threads are enabled each such
+ * task runs on its own virtual thread instead of tying up a worker, so many can
+ * be in flight at once while the workers stay free for CPU-bound tasks.
+ *
+ * <p>
+ * The number of tasks waiting to start may be capped, in which case a
+ * {@link Backpressure} policy decides what happens to tasks submitted while the
+ * queue is full. The queue keeps metrics on its depth and on how long
+ * submitters were held back.
+ *
+ * <p>
+ * Tasks may be submitted through a {@link TaskGroup} so that a subsystem can
+ * wait for just its own tasks instead of every task in the queue, and through
+ * {@link #submit(Callable)} to get a {@link CompletableFuture} of the result
+ * that dependent stages can be chained on.
+ *
+ * <p>
+ * Every task runs in a {@link Lane}. Workers always take a waiting task from the
+ * highest priority lane that is below its concurrency limit, so latency
+ * sensitive tasks are not stuck behind bulk work. A lane passed over for
+ * {@link #AGING} tasks of higher priority lanes is looked in first by the next
+ * worker, so a steady stream of higher priority work cannot starve it. Tasks in
+ * lanes other than
+ * {@link Lane#NORMAL} always wait in a shared queue for their lane, even when
+ * stealing.
+ *
  * @see <a href=
  *   "https://web.archive.org/web/20210126172022/https://www.ibm.com/developerworks/library/j-jtp0730/index.html">
  *   Java Theory and Practice: Thread Pools and Work Queues</a>
  */
 public class WorkQueue {
+	/**
+	 * How tasks are distributed to the worker threads.
+	 */
+	public enum Scheduler {
+		/** All workers take tasks from one shared queue. */
+		SHARED,
+
+		/** Each worker has its own deque and steals from its peers when idle. */
+		STEALING
+	}
+
+	/**
+	 * What happens to a task submitted while the queue is at capacity.
+	 */
+	public enum Backpressure {
+		/**
+		 * The submitter waits until there is room. Workers submitting tasks to their
+		 * own queue run the task themselves instead, since waiting could deadlock
+		 * every worker.
+		 */
+		BLOCK,
+
+		/** The submitter runs the task itself. */
+		CALLER_RUNS,
+
+		/**
+		 * The oldest waiting task is discarded to make room, and a warning is logged.
+		 * Only suitable for tasks that may be lost, so it is never used for indexing
+		 * or crawling.
+		 */
+		DROP_OLDEST
+	}
+
+	/**
+	 * Scheduling lanes, from highest to lowest priority.
+	 */
+	public enum Lane {
+		/** Latency sensitive tasks, such as answering queries. */
+		INTERACTIVE,
+
+		/** Ordinary tasks, such as indexing files. Used when no lane is given. */
+		NORMAL,
+
+		/** Bulk tasks that may wait, such as crawling. */
+		BACKGROUND
+	}
+
+	/** The lanes in priority order. */
+	private static final Lane[] LANES = Lane.values();
+
+	/**
+	 * The number of tasks taken from higher priority lanes after which a lane
+	 * with waiting tasks is looked in first.
+	 */
+	public static final int AGING = 8;
+
+	/**
+	 * The order to look in the lanes once each lane, by index, has aged: that lane
+	 * first, then the others in priority order.
+	 */
+	private static final Lane[][] AGED = new Lane[LANES.length][];
+
+	static {
+		for (Lane lane : LANES) {
+			Lane[] order = new Lane[LANES.length];
+			order[0] = lane;
+			int i = 1;
+			for (Lane other : LANES) {
+				if (other != lane) {
+					order[i++] = other;
+				}
+			}
+			AGED[lane.ordinal()] = order;
+		}
+	}
+
+	/** The capacity used when the number of waiting tasks is not capped. */
+	public static final int UNBOUNDED = Integer.MAX_VALUE;
+
 	/** Workers that wait until work (or tasks) are available. */
 	private final Worker[] workers;
 
-	/** Queue of pending work (or tasks). */
+	/**
+	 * Queue of pending work (or tasks). Used as the injection queue for tasks
+	 * submitted from outside the workers when stealing.
+	 */
 	private final LinkedList<Runnable> tasks;
 
+	/**
+	 * The shared queue of waiting tasks for each lane, all guarded by the tasks
+	 * queue, which is also the queue of the normal lane.
+	 */
+	private final EnumMap<Lane, LinkedList<Runnable>> lanes;
+
+	/** The number of tasks running in each lane, indexed by lane. */
+	private final AtomicIntegerArray running;
+
+	/** The most tasks that may run at once in each lane, indexed by lane. */
+	private final AtomicIntegerArray limits;
+
+	/**
+	 * The number of tasks taken from higher priority lanes since a task was last
+	 * taken from each lane or it was last found empty, indexed by lane.
+	 */
+	private final AtomicIntegerArray passed;
+
+	/** How tasks are distributed to the worker threads. */
+	private final Scheduler scheduler;
+
+	/** The number of workers waiting for tasks when stealing. */
+	private final AtomicInteger idle;
+
+	/** The monitor idle workers wait on when stealing. */
+	private final Object idleLock;
+
+	/** Creates a virtual thread for each blocking task, or null if disabled. */
+	private final ThreadFactory blockingThreads;
+
+	/** The most tasks that may wait to start at once. */
+	private final int capacity;
+
+	/** What happens to tasks submitted while the queue is at capacity. */
+	private final Backpressure backpressure;
+
+	/** The number of tasks waiting to start, including those being added. */
+	private final AtomicInteger queued;
+
+	/** The most tasks that have waited to start at once. */
+	private final AtomicInteger peak;
+
+	/** The number of submitters waiting for room in the queue. */
+	private final AtomicInteger blocked;
+
+	/** The monitor submitters wait on for room in the queue. */
+	private final Object spaceLock;
+
+	/** The total time submitters spent waiting for room, in nanoseconds. */
+	private final LongAdder waited;
+
+	/** The number of tasks run by their submitter because the queue was full. */
+	private final LongAdder callerRuns;
+
+	/** The number of tasks discarded because the queue was full. */
+	private final LongAdder dropped;
+
 	/** Logger used for this class. */
 	private static final Logger log = LogManager.getLogger();
 
@@ -32,7 +218,7 @@ public class WorkQueue {
 	public static final int DEFAULT = 5;
 
 	/** Tracks the number of pending tasks. */
-	private int pending = 0;
+	private final AtomicInteger pending = new AtomicInteger();
 
 	/**
 	 * Initializes the work queue with the default number of worker threads.
@@ -45,17 +231,19 @@ public class WorkQueue {
 	/**
 	 * Increments the pending
 	 */
-	public synchronized void IncrementPending() {
-		pending++;
+	public void IncrementPending() {
+		pending.incrementAndGet();
 	}
 
 	/**
-	 * Decrements the pending while notifying if there are 0 pending
+	 * Decrements the pending while notifying if there are 0 pending. Only takes
+	 * the monitor when the count reaches 0.
 	 */
-	public synchronized void DecrementPending() {
-		pending--;
-		if (pending <= 0) {
-			this.notifyAll();
+	public void DecrementPending() {
+		if (pending.decrementAndGet() <= 0) {
+			synchronized (this) {
+				this.notifyAll();
+			}
 		}
 	}
 
@@ -65,33 +253,514 @@ public class WorkQueue {
 	 * @param threads the number of worker threads; must be greater than 0
 	 */
 	public WorkQueue(int threads) {
+		this(threads, Scheduler.SHARED);
+	}
+
+	/**
+	 * Initializes the work queue with the specified number of worker threads and
+	 * scheduler.
+	 *
+	 * @param threads the number of worker threads; must be greater than 0
+	 * @param scheduler how tasks are distributed to the worker threads
+	 */
+	public WorkQueue(int threads, Scheduler scheduler) {
+		this(threads, scheduler, false);
+	}
+
+	/**
+	 * Initializes the work queue with the specified number of worker threads and
+	 * scheduler, optionally running blocking tasks on virtual threads.
+	 *
+	 * @param threads the number of worker threads; must be greater than 0
+	 * @param scheduler how tasks are distributed to the worker threads
+	 * @param isVirtual whether each blocking task gets its own virtual thread
+	 *
+	 * @see #executeBlocking(Runnable)
+	 */
+	public WorkQueue(int threads, Scheduler scheduler, boolean isVirtual) {
+		this(threads, scheduler, isVirtual, UNBOUNDED, Backpressure.BLOCK);
+	}
+
+	/**
+	 * Initializes the work queue with the specified number of worker threads,
+	 * scheduler and capacity.
+	 *
+	 * @param threads the number of worker threads; must be greater than 0
+	 * @param scheduler how tasks are distributed to the worker threads
+	 * @param isVirtual whether each blocking task gets its own virtual thread
+	 * @param capacity the most tasks that may wait to start at once; must be
+	 *   greater than 0, or {@link #UNBOUNDED}
+	 * @param backpressure what happens to tasks submitted while the queue is at
+	 *   capacity
+	 */
+	public WorkQueue(int threads, Scheduler scheduler, boolean isVirtual, int capacity, Backpressure backpressure) {
 
 		if (threads < 1) {
 			throw new IllegalArgumentException("Thread count must be at least 1");
 		}
 
+		if (scheduler == null) {
+			throw new IllegalArgumentException("Scheduler must not be null");
+		}
+
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Capacity must be at least 1");
+		}
+
+		if (backpressure == null) {
+			throw new IllegalArgumentException("Backpressure policy must not be null");
+		}
+
 		this.tasks = new LinkedList<>();
 		this.workers = new Worker[threads];
+		this.lanes = new EnumMap<>(Lane.class);
+		this.running = new AtomicIntegerArray(LANES.length);
+		this.limits = new AtomicIntegerArray(LANES.length);
+		this.passed = new AtomicIntegerArray(LANES.length);
+		for (Lane lane : LANES) {
+			lanes.put(lane, lane == Lane.NORMAL ? tasks : new LinkedList<>());
+			limits.set(lane.ordinal(), threads);
+		}
+		this.scheduler = scheduler;
+		this.idle = new AtomicInteger();
+		this.idleLock = new Object();
+		this.blockingThreads = isVirtual ? Thread.ofVirtual().name("Blocking", 0).factory() : null;
+		this.capacity = capacity;
+		this.backpressure = backpressure;
+		this.queued = new AtomicInteger();
+		this.peak = new AtomicInteger();
+		this.blocked = new AtomicInteger();
+		this.spaceLock = new Object();
+		this.waited = new LongAdder();
+		this.callerRuns = new LongAdder();
+		this.dropped = new LongAdder();
 		this.shutdown = false;
 
 		for (int i = 0; i < threads; i++) {
-			workers[i] = new Worker();
-			workers[i].start();
+			workers[i] = new Worker(i);
+		}
+
+		for (Worker worker : workers) {
+			worker.start();
 		}
 	}
 
 	/**
 	 * Adds a work task to the queue. A worker thread will process this task when
-	 * available.
+	 * available. If the queue is at capacity, the {@link Backpressure} policy
+	 * decides whether the caller waits, runs the task itself, or discards the
+	 * oldest waiting task.
 	 * 
 	 * @param task the work task to be executed by a worker thread
 	 */
 	public void execute(Runnable task) {
+		execute(task, Lane.NORMAL);
+	}
+
+	/**
+	 * Adds a work task to a lane of the queue.
+	 *
+	 * @param task the work task to be executed by a worker thread
+	 * @param lane the lane to run the task in
+	 *
+	 * @see #execute(Runnable)
+	 */
+	public void execute(Runnable task, Lane lane) {
 		IncrementPending();
+
+		Worker worker = Thread.currentThread() instanceof Worker current && current.isOwnedBy(this) ? current : null;
+		if (!tryReserve()) {
+			switch (backpressure) {
+				case BLOCK -> {
+					if (worker != null) {
+						runByCaller(task);
+						return;
+					}
+					awaitSpace();
+				}
+				case CALLER_RUNS -> {
+					runByCaller(task);
+					return;
+				}
+				case DROP_OLDEST -> dropOldest();
+			}
+		}
+
+		enqueue(task, lane, worker);
+	}
+
+	/**
+	 * Adds a task that already has a reserved place to the queue and wakes a
+	 * worker for it.
+	 *
+	 * @param task the task to add
+	 * @param lane the lane to run the task in
+	 * @param worker the worker submitting the task, or null if submitted from
+	 *   another thread
+	 */
+	private void enqueue(Runnable task, Lane lane, Worker worker) {
+		if (scheduler == Scheduler.STEALING) {
+			if (worker != null && lane == Lane.NORMAL) {
+				synchronized (worker.deque) {
+					worker.deque.addLast(task);
+				}
+			}
+			else {
+				synchronized (tasks) {
+					lanes.get(lane).addLast(task);
+				}
+			}
+
+			// idle is raised before idle workers look for tasks, so either they find
+			// this task or it is seen here
+			if (idle.get() > 0) {
+				synchronized (idleLock) {
+					idleLock.notify();
+				}
+			}
+			return;
+		}
+
+		synchronized (tasks) {
+			lanes.get(lane).addLast(task);
+			tasks.notifyAll();
+		}
+	}
+
+	/**
+	 * Limits how many tasks of a lane may run at once, leaving the other workers
+	 * free for the other lanes.
+	 *
+	 * @param lane the lane to limit
+	 * @param threads the most tasks of the lane that may run at once; must be
+	 *   greater than 0
+	 */
+	public void limit(Lane lane, int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Lane limit must be at least 1");
+		}
+
+		limits.set(lane.ordinal(), Math.min(threads, workers.length));
+		signalAll();
+	}
+
+	/**
+	 * Returns how many tasks of a lane may run at once.
+	 *
+	 * @param lane the lane to check
+	 * @return the most tasks of the lane that may run at once
+	 */
+	public int limit(Lane lane) {
+		return limits.get(lane.ordinal());
+	}
+
+	/**
+	 * Takes a running place in a lane if it is below its limit.
+	 *
+	 * @param lane the lane to take a place in
+	 * @return true if a place was taken
+	 */
+	private boolean tryStart(Lane lane) {
+		int index = lane.ordinal();
+		int count;
+		do {
+			count = running.get(index);
+			if (count >= limits.get(index)) {
+				return false;
+			}
+		}
+		while (!running.compareAndSet(index, count, count + 1));
+		return true;
+	}
+
+	/**
+	 * Returns the order to look in the lanes for the next task: the lowest
+	 * priority lane passed over for {@link #AGING} tasks first, if any, and
+	 * otherwise priority order.
+	 *
+	 * @return the lanes in the order to look in them
+	 */
+	private Lane[] order() {
+		for (int i = LANES.length - 1; i > 0; i--) {
+			if (passed.get(i) >= AGING) {
+				return AGED[i];
+			}
+		}
+		return LANES;
+	}
+
+	/**
+	 * Records that a task was taken from a lane, passing over every lower
+	 * priority lane.
+	 *
+	 * @param lane the lane the task was taken from
+	 */
+	private void taken(Lane lane) {
+		passed.set(lane.ordinal(), 0);
+		for (int i = lane.ordinal() + 1; i < LANES.length; i++) {
+			passed.incrementAndGet(i);
+		}
+	}
+
+	/**
+	 * Gives back a running place in a lane. If the lane is limited, a worker is
+	 * woken since it may have passed over a task of this lane.
+	 *
+	 * @param lane the lane to give a place back to
+	 */
+	private void finish(Lane lane) {
+		running.decrementAndGet(lane.ordinal());
+		if (limits.get(lane.ordinal()) < workers.length) {
+			if (scheduler == Scheduler.STEALING) {
+				if (idle.get() > 0) {
+					synchronized (idleLock) {
+						idleLock.notify();
+					}
+				}
+			}
+			else {
+				synchronized (tasks) {
+					tasks.notify();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Wakes every waiting worker.
+	 */
+	private void signalAll() {
 		synchronized (tasks) {
-			tasks.addLast(task);
 			tasks.notifyAll();
 		}
+
+		synchronized (idleLock) {
+			idleLock.notifyAll();
+		}
+	}
+
+	/**
+	 * Reserves a place in the queue for a task if it is not at capacity.
+	 *
+	 * @return true if a place was reserved
+	 */
+	private boolean tryReserve() {
+		int count;
+		do {
+			count = queued.get();
+			if (count >= capacity) {
+				return false;
+			}
+		}
+		while (!queued.compareAndSet(count, count + 1));
+
+		if (count + 1 > peak.get()) {
+			peak.accumulateAndGet(count + 1, Math::max);
+		}
+		return true;
+	}
+
+	/**
+	 * Waits until a place in the queue can be reserved, adding the time spent to
+	 * the producer wait metric. If interrupted, the place is taken anyway so the
+	 * task is not lost, and the interrupt status is restored.
+	 */
+	private void awaitSpace() {
+		long start = System.nanoTime();
+		synchronized (spaceLock) {
+			// blocked is raised before the last check, so a worker freeing a place
+			// either lets this check succeed or sees a submitter to wake
+			blocked.incrementAndGet();
+			try {
+				while (!tryReserve()) {
+					spaceLock.wait();
+				}
+			}
+			catch (InterruptedException e) {
+				log.catching(Level.DEBUG, e);
+				queued.incrementAndGet();
+				Thread.currentThread().interrupt();
+			}
+			finally {
+				blocked.decrementAndGet();
+			}
+		}
+		waited.add(System.nanoTime() - start);
+	}
+
+	/**
+	 * Frees the place of a task taken by a worker, waking one waiting submitter if
+	 * there is any.
+	 */
+	private void release() {
+		queued.decrementAndGet();
+		if (blocked.get() > 0) {
+			synchronized (spaceLock) {
+				spaceLock.notify();
+			}
+		}
+	}
+
+	/**
+	 * Runs a task on the submitting thread because the queue is full.
+	 *
+	 * @param task the task to run
+	 */
+	private void runByCaller(Runnable task) {
+		callerRuns.increment();
+		try {
+			runTask(task);
+		}
+		finally {
+			DecrementPending();
+		}
+	}
+
+	/**
+	 * Discards the oldest waiting task of the lowest priority lane with waiting
+	 * tasks so a new one can take its place. When stealing, the oldest task of the
+	 * injection queue is discarded before that of each worker in turn. If every
+	 * reserved place belongs to a task not yet added, a place is taken over
+	 * capacity instead.
+	 */
+	private void dropOldest() {
+		Runnable oldest = null;
+		for (int lane = LANES.length - 1; oldest == null && lane >= 0; lane--) {
+			synchronized (tasks) {
+				oldest = lanes.get(LANES[lane]).pollFirst();
+			}
+
+			for (int i = 0; oldest == null && LANES[lane] == Lane.NORMAL && scheduler == Scheduler.STEALING
+					&& i < workers.length; i++) {
+				synchronized (workers[i].deque) {
+					oldest = workers[i].deque.pollFirst();
+				}
+			}
+		}
+
+		if (oldest == null) {
+			queued.incrementAndGet();
+			return;
+		}
+
+		dropped.increment();
+		log.warn("Dropped task {} since the queue is full", oldest);
+		if (oldest instanceof Tracked tracked) {
+			tracked.discard();
+		}
+		DecrementPending();
+	}
+
+	/**
+	 * Adds a task to the queue and returns a future of its result. If the task
+	 * throws an exception, the future completes exceptionally instead of the
+	 * exception being logged.
+	 *
+	 * @param <T> the type of the result
+	 * @param task the task to run
+	 * @return a future completed with the result of the task
+	 */
+	public <T> CompletableFuture<T> submit(Callable<T> task) {
+		return submit(task, null);
+	}
+
+	/**
+	 * Adds a task to the queue and returns a future completed when it finishes.
+	 *
+	 * @param task the task to run
+	 * @return a future completed once the task finishes
+	 *
+	 * @see #submit(Callable)
+	 */
+	public CompletableFuture<Void> submit(Runnable task) {
+		return submit(Executors.callable(task, null), null);
+	}
+
+	/**
+	 * Adds a task to the queue as part of a group and returns a future of its
+	 * result.
+	 *
+	 * @param <T> the type of the result
+	 * @param task the task to run
+	 * @param group the group the task belongs to, or null if none
+	 * @return a future completed with the result of the task
+	 */
+	private <T> CompletableFuture<T> submit(Callable<T> task, TaskGroup group) {
+		CompletableFuture<T> future = new CompletableFuture<>();
+		execute(new Tracked(() -> {
+			try {
+				future.complete(task.call());
+			}
+			catch (Exception e) {
+				future.completeExceptionally(e);
+			}
+		}, group, future));
+		return future;
+	}
+
+	/**
+	 * Returns a new group of tasks run by this queue.
+	 *
+	 * @return a new, empty task group
+	 */
+	public TaskGroup group() {
+		return new TaskGroup();
+	}
+
+	/**
+	 * Adds a work task that spends most of its time blocked, such as on network
+	 * I/O. If virtual threads are enabled the task runs on its own virtual thread
+	 * right away, otherwise it is queued for a worker like any other task. Either
+	 * way it counts as pending work until it completes. Blocking tasks should hand
+	 * any CPU-heavy work back to the workers with {@link #execute(Runnable)}.
+	 *
+	 * @param task the work task to be executed
+	 */
+	public void executeBlocking(Runnable task) {
+		executeBlocking(task, Lane.NORMAL);
+	}
+
+	/**
+	 * Adds a work task that spends most of its time blocked, using the given lane
+	 * if it is queued for a worker.
+	 *
+	 * @param task the work task to be executed
+	 * @param lane the lane to run the task in when virtual threads are disabled
+	 *
+	 * @see #executeBlocking(Runnable)
+	 */
+	public void executeBlocking(Runnable task, Lane lane) {
+		if (blockingThreads == null) {
+			execute(task, lane);
+			return;
+		}
+
+		IncrementPending();
+		blockingThreads.newThread(() -> {
+			try {
+				runTask(task);
+			}
+			finally {
+				DecrementPending();
+			}
+		}).start();
+	}
+
+	/**
+	 * Runs a task, logging instead of propagating any runtime exception so the
+	 * thread running it is not lost.
+	 *
+	 * @param task the task to run
+	 */
+	private static void runTask(Runnable task) {
+		try {
+			task.run();
+		}
+		catch (RuntimeException e) {
+			// catch runtime exceptions to avoid leaking threads
+			System.err.printf("Error: %s encountered an excpetion while running.%n", Thread.currentThread().getName());
+			log.catching(Level.ERROR, e);
+		}
 	}
 
 	/**
@@ -100,7 +769,7 @@ public class WorkQueue {
 	 */
 	public synchronized void finish() {
 		try {
-			while (pending > 0) {
+			while (pending.get() > 0) {
 				wait();
 			}
 		}
@@ -117,10 +786,7 @@ public class WorkQueue {
 	// //CITE: Help in CSLABS
 	public void shutdown() {
 		shutdown = true;
-
-		synchronized (tasks) {
-			tasks.notifyAll();
-		}
+		signalAll();
 	}
 
 	/**
@@ -134,6 +800,8 @@ public class WorkQueue {
 			for (Worker worker : workers) {
 				worker.join();
 			}
+			log.debug("Work queue peak depth {}, producer wait {}, caller runs {}, dropped {}", peakDepth(), producerWait(),
+					callerRuns(), dropped());
 		}
 		catch (InterruptedException e) {
 			System.err.println("Warning: Work queue interrupted while joining.");
@@ -151,15 +819,457 @@ public class WorkQueue {
 		return workers.length;
 	}
 
+	/**
+	 * Returns how tasks are distributed to the worker threads.
+	 *
+	 * @return the scheduler
+	 */
+	public Scheduler scheduler() {
+		return scheduler;
+	}
+
+	/**
+	 * Returns whether blocking tasks run on their own virtual threads.
+	 *
+	 * @return true if virtual threads are enabled
+	 */
+	public boolean isVirtual() {
+		return blockingThreads != null;
+	}
+
+	/**
+	 * Returns the most tasks that may wait to start at once.
+	 *
+	 * @return the capacity, or {@link #UNBOUNDED}
+	 */
+	public int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * Returns what happens to tasks submitted while the queue is at capacity.
+	 *
+	 * @return the backpressure policy
+	 */
+	public Backpressure backpressure() {
+		return backpressure;
+	}
+
+	/**
+	 * Returns the number of tasks currently waiting to start.
+	 *
+	 * @return the queue depth
+	 */
+	public int depth() {
+		return queued.get();
+	}
+
+	/**
+	 * Returns the most tasks that have waited to start at once.
+	 *
+	 * @return the peak queue depth
+	 */
+	public int peakDepth() {
+		return peak.get();
+	}
+
+	/**
+	 * Returns the total time submitters spent waiting for room in the queue.
+	 *
+	 * @return the total producer wait time
+	 */
+	public Duration producerWait() {
+		return Duration.ofNanos(waited.sum());
+	}
+
+	/**
+	 * Returns the number of tasks run by their submitter because the queue was
+	 * full.
+	 *
+	 * @return the number of caller-run tasks
+	 */
+	public long callerRuns() {
+		return callerRuns.sum();
+	}
+
+	/**
+	 * Returns the number of tasks discarded because the queue was full.
+	 *
+	 * @return the number of dropped tasks
+	 */
+	public long dropped() {
+		return dropped.sum();
+	}
+
+	/**
+	 * A set of related tasks that can be waited on without waiting for the other
+	 * tasks in the queue. Tasks added by a group task should be added through the
+	 * same group so they are waited on as well.
+	 */
+	public class TaskGroup {
+		/** The number of unfinished tasks in this group. */
+		private final AtomicInteger pending;
+
+		/** Futures to complete the next time this group has no unfinished tasks. */
+		private final List<CompletableFuture<Void>> finished;
+
+		/**
+		 * Initializes an empty task group.
+		 */
+		private TaskGroup() {
+			this.pending = new AtomicInteger();
+			this.finished = new ArrayList<>();
+		}
+
+		/**
+		 * Adds a task of this group to the queue.
+		 *
+		 * @param task the task to run
+		 *
+		 * @see WorkQueue#execute(Runnable)
+		 */
+		public void execute(Runnable task) {
+			execute(task, Lane.NORMAL);
+		}
+
+		/**
+		 * Adds a task of this group to a lane of the queue.
+		 *
+		 * @param task the task to run
+		 * @param lane the lane to run the task in
+		 *
+		 * @see WorkQueue#execute(Runnable, Lane)
+		 */
+		public void execute(Runnable task, Lane lane) {
+			pending.incrementAndGet();
+			WorkQueue.this.execute(new Tracked(task, this, null), lane);
+		}
+
+		/**
+		 * Adds a task of this group that spends most of its time blocked.
+		 *
+		 * @param task the task to run
+		 *
+		 * @see WorkQueue#executeBlocking(Runnable)
+		 */
+		public void executeBlocking(Runnable task) {
+			executeBlocking(task, Lane.NORMAL);
+		}
+
+		/**
+		 * Adds a task of this group that spends most of its time blocked, using the
+		 * given lane if it is queued for a worker.
+		 *
+		 * @param task the task to run
+		 * @param lane the lane to run the task in when virtual threads are disabled
+		 *
+		 * @see WorkQueue#executeBlocking(Runnable, Lane)
+		 */
+		public void executeBlocking(Runnable task, Lane lane) {
+			pending.incrementAndGet();
+			WorkQueue.this.executeBlocking(new Tracked(task, this, null), lane);
+		}
+
+		/**
+		 * Adds a task of this group to the queue and returns a future of its result.
+		 *
+		 * @param <T> the type of the result
+		 * @param task the task to run
+		 * @return a future completed with the result of the task
+		 *
+		 * @see WorkQueue#submit(Callable)
+		 */
+		public <T> CompletableFuture<T> submit(Callable<T> task) {
+			pending.incrementAndGet();
+			return WorkQueue.this.submit(task, this);
+		}
+
+		/**
+		 * Adds a task of this group to the queue and returns a future completed when
+		 * it finishes.
+		 *
+		 * @param task the task to run
+		 * @return a future completed once the task finishes
+		 *
+		 * @see WorkQueue#submit(Runnable)
+		 */
+		public CompletableFuture<Void> submit(Runnable task) {
+			return submit(Executors.callable(task, null));
+		}
+
+		/**
+		 * Returns the number of unfinished tasks in this group.
+		 *
+		 * @return the number of unfinished tasks
+		 */
+		public int pending() {
+			return pending.get();
+		}
+
+		/**
+		 * Returns a future completed the next time this group has no unfinished
+		 * tasks, so later stages can start once this group is done without blocking
+		 * a thread.
+		 *
+		 * @return a future completed once this group has no unfinished tasks
+		 */
+		public CompletableFuture<Void> whenFinished() {
+			synchronized (this) {
+				if (pending.get() == 0) {
+					return CompletableFuture.completedFuture(null);
+				}
+				CompletableFuture<Void> future = new CompletableFuture<>();
+				finished.add(future);
+				return future;
+			}
+		}
+
+		/**
+		 * Waits for all tasks in this group to be completed, including tasks added by
+		 * them through this group. Other tasks in the queue are not waited on.
+		 */
+		public void finish() {
+			synchronized (this) {
+				try {
+					while (pending.get() > 0) {
+						wait();
+					}
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+
+		/**
+		 * Marks a task of this group as finished, waking anyone waiting on the group
+		 * if it was the last one. Only takes the monitor when the count reaches 0.
+		 */
+		private void done() {
+			if (pending.decrementAndGet() == 0) {
+				List<CompletableFuture<Void>> waiting;
+				synchronized (this) {
+					notifyAll();
+					waiting = List.copyOf(finished);
+					finished.clear();
+				}
+				waiting.forEach(future -> future.complete(null));
+			}
+		}
+	}
+
+	/**
+	 * A task that reports to its group and future when it is run or discarded.
+	 */
+	private static class Tracked implements Runnable {
+		/** The task to run. */
+		private final Runnable task;
+
+		/** The group the task belongs to, or null if none. */
+		private final TaskGroup group;
+
+		/** The future of the task result, or null if none. */
+		private final CompletableFuture<?> future;
+
+		/**
+		 * Initializes a tracked task.
+		 *
+		 * @param task the task to run
+		 * @param group the group the task belongs to, or null if none
+		 * @param future the future of the task result, or null if none
+		 */
+		private Tracked(Runnable task, TaskGroup group, CompletableFuture<?> future) {
+			this.task = task;
+			this.group = group;
+			this.future = future;
+		}
+
+		@Override
+		public void run() {
+			try {
+				runTask(task);
+			}
+			finally {
+				if (group != null) {
+					group.done();
+				}
+			}
+		}
+
+		/**
+		 * Reports the task as finished without running it, cancelling its future.
+		 */
+		private void discard() {
+			if (future != null) {
+				future.cancel(false);
+			}
+			if (group != null) {
+				group.done();
+			}
+		}
+
+		@Override
+		public String toString() {
+			return task.toString();
+		}
+	}
+
 	/**
 	 * Worker threads that process submitted tasks.
 	 */
 	private class Worker extends Thread {
+		/** The position of this worker in the array of workers. */
+		private final int id;
+
+		/** The tasks submitted by this worker when stealing. */
+		private final ArrayDeque<Runnable> deque;
+
+		/** The lane of the last task taken by this worker. */
+		private Lane lane;
+
 		/**
 		 * Initializes a worker thread with a custom name.
+		 *
+		 * @param id the position of this worker in the array of workers
 		 */
-		public Worker() {
+		public Worker(int id) {
 			setName("Worker" + getName());
+			this.id = id;
+			this.deque = new ArrayDeque<>();
+		}
+
+		/**
+		 * Determines whether this worker belongs to a work queue.
+		 *
+		 * @param queue the work queue to check
+		 * @return true if this worker runs the tasks of that queue
+		 */
+		public boolean isOwnedBy(WorkQueue queue) {
+			return WorkQueue.this == queue;
+		}
+
+		/**
+		 * Waits for the next task from the shared queues, taking it from the highest
+		 * priority lane below its limit unless a lower priority lane has aged.
+		 *
+		 * @return the next task, or null if the queue is shut down
+		 * @throws InterruptedException if interrupted while waiting
+		 */
+		private Runnable takeShared() throws InterruptedException {
+			synchronized (tasks) {
+				while (!shutdown) {
+					for (Lane next : order()) {
+						if (lanes.get(next).isEmpty()) {
+							// a lane without waiting tasks is not being starved
+							passed.set(next.ordinal(), 0);
+						}
+						else if (tryStart(next)) {
+							lane = next;
+							taken(next);
+							return lanes.get(next).removeFirst();
+						}
+					}
+					tasks.wait();
+				}
+				return null;
+			}
+		}
+
+		/**
+		 * Looks for a task without waiting in each lane below its limit, from highest
+		 * to lowest priority unless a lower priority lane has aged.
+		 *
+		 * @return a task, or null if none was found
+		 */
+		private Runnable poll() {
+			for (Lane next : order()) {
+				if (tryStart(next)) {
+					Runnable task;
+					if (next == Lane.NORMAL) {
+						task = pollNormal();
+					}
+					else {
+						synchronized (tasks) {
+							task = lanes.get(next).pollFirst();
+						}
+					}
+
+					if (task != null) {
+						lane = next;
+						taken(next);
+						return task;
+					}
+
+					// nothing was started, so no worker needs to be woken
+					running.decrementAndGet(next.ordinal());
+					// a lane without waiting tasks is not being starved
+					passed.set(next.ordinal(), 0);
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * Looks for a task of the normal lane without waiting, first in this worker's
+		 * deque, then in the injection queue, and finally in the deques of the other
+		 * workers. Tasks are taken oldest first everywhere, since tasks are
+		 * independent of each other.
+		 *
+		 * @return a task, or null if none was found
+		 */
+		private Runnable pollNormal() {
+			Runnable task;
+			synchronized (deque) {
+				task = deque.pollFirst();
+			}
+
+			if (task == null) {
+				synchronized (tasks) {
+					task = tasks.pollFirst();
+				}
+			}
+
+			for (int i = 1; task == null && i < workers.length; i++) {
+				Worker victim = workers[(id + i) % workers.length];
+				synchronized (victim.deque) {
+					task = victim.deque.pollFirst();
+				}
+			}
+
+			return task;
+		}
+
+		/**
+		 * Waits for the next task when stealing.
+		 *
+		 * @return the next task, or null if the queue is shut down
+		 * @throws InterruptedException if interrupted while waiting
+		 */
+		private Runnable takeStealing() throws InterruptedException {
+			while (!shutdown) {
+				Runnable task = poll();
+				if (task != null) {
+					return task;
+				}
+
+				synchronized (idleLock) {
+					idle.incrementAndGet();
+					try {
+						// look again now that submitters will see this worker is idle
+						task = poll();
+						if (task != null) {
+							return task;
+						}
+						if (!shutdown) {
+							idleLock.wait();
+						}
+					}
+					finally {
+						idle.decrementAndGet();
+					}
+				}
+			}
+			return null;
 		}
 
 		/**
@@ -171,27 +1281,17 @@ public class WorkQueue {
 			Runnable task;
 			try {
 				while (true) {
-					synchronized (tasks) {
-						while (tasks.isEmpty() && !shutdown) {
-							tasks.wait();
-						}
-
-						if (shutdown) {
-							break;
-						}
-
-						task = tasks.removeFirst();
+					task = scheduler == Scheduler.STEALING ? takeStealing() : takeShared();
+					if (task == null) {
+						break;
 					}
+					release();
 
 					try {
-						task.run();
-					}
-					catch (RuntimeException e) {
-						// catch runtime exceptions to avoid leaking threads
-						System.err.printf("Error: %s encountered an excpetion while running.%n", this.getName());
-						log.catching(Level.ERROR, e);
+						runTask(task);
 					}
 					finally {
+						finish(lane);
 						DecrementPending();
 					}
 				}